@@ -0,0 +1,286 @@
+/* Benchmark.java */
+
+package player;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ *  Benchmark times the hot paths of the engine on fixed sets of positions
+ *  from three parts of the game: the early add phase, the late add phase
+ *  (the middle game) and the step phase.  Run it with
+ *  "java player.Benchmark [name]" to run every benchmark whose name contains
+ *  'name', or all of them.
+ *
+ *  Each benchmark is run for WARMUP iterations, which are thrown away so the
+ *  compiler can settle, then for ITERATIONS measured iterations of about
+ *  ITERATIONMILLIS milliseconds each.  An iteration calls the benchmarked
+ *  method over and over, on one position after another, and always ends
+ *  after the last position of the set, so that every iteration of a slow
+ *  benchmark such as chooseMove() sees the same positions.  For every
+ *  benchmark and set it prints the operations per second (mean and the
+ *  slowest and fastest iteration) and the bytes allocated per operation and
+ *  per second by the benchmarking thread, as counted by the JVM.
+ *
+ *  "java player.Benchmark threads" runs the thread sweep instead: the same
+ *  fixed-depth search of every middle game position in the ROOTSPLIT and
+ *  LAZYSMP modes with each of THREADCOUNTS threads, printing the time, the
+ *  nodes searched by all threads, the fraction of cutoffs caused by the
+ *  first move searched and the speedup over one thread.
+ */
+public class Benchmark {
+
+  static final int WARMUP = 3;             // iterations run before measuring
+  static final int ITERATIONS = 5;         // iterations measured
+  static final long ITERATIONMILLIS = 200; // length of one iteration
+  static final int COUNT = 50;             // positions in each set
+  static final long SEED = 4242;           // seed of the sets
+  static final int[] THREADCOUNTS = {1, 2, 4, 8, 16};  // thread counts of the sweep
+  static final int SWEEPDEPTH = 3;         // searchDepth of the sweep
+
+  static final String[] PHASES = {"add", "middle", "step"};
+  static final int[][] PLIES = {{2, 9}, {10, 19}, {Positions.STEPPLIES, Positions.MAXPLIES}};
+
+  static final String[] NAMES = {
+    "validMoves", "generateMoves", "isValidMove", "hasValidNetwork", "networkNeighbors",
+    "features", "networkFeatures", "evaluation", "chooseMove1", "chooseMove2", "chooseMove3"
+  };
+
+  static long sink;  // results of benchmarked calls go here, so they are not optimized away
+
+  private GameState[] positions;
+  private Move[][] candidates;       // moves given to isValidMove(), valid or not
+  private NetworkNode[][] chips;     // a NetworkNode for every chip, for networkNeighbors()
+  private int[] buffer = new int[GameState.MAXMOVES];
+  private MachinePlayer[][] players; // [depth - 1][color index], for chooseMove()
+
+  // Constructs a benchmark over 'positions', preparing the inputs of every method.
+  Benchmark(GameState[] positions) {
+    this.positions = positions;
+    candidates = new Move[positions.length][];
+    chips = new NetworkNode[positions.length][];
+    for (int k = 0; k < positions.length; k++) {
+      GameState state = positions[k];
+      int n = state.generateMoves(state.sideToMove, buffer);
+      candidates[k] = new Move[n + 64];
+      for (int i = 0; i < n; i++) {
+	candidates[k][i] = PackedMove.unpack(buffer[i]);
+      }
+      for (int sq = 0; sq < 64; sq++) {
+	candidates[k][n + sq] = new Move(Board.squareX(sq), Board.squareY(sq));
+      }
+      long occupied = state.gameBoard.occupied();
+      chips[k] = new NetworkNode[Long.bitCount(occupied)];
+      for (int i = 0; occupied != 0; occupied &= occupied - 1, i++) {
+	int sq = Long.numberOfTrailingZeros(occupied);
+	chips[k][i] = new NetworkNode(new Coordinate(Board.squareX(sq), Board.squareY(sq)));
+      }
+    }
+    players = new MachinePlayer[3][2];
+    for (int depth = 1; depth <= 3; depth++) {
+      for (int c = 0; c < 2; c++) {
+	MachinePlayer player = new MachinePlayer(c, depth);
+	player.setTableSize(1);
+	player.setEvalCacheSize(1);
+	players[depth - 1][c] = player;
+      }
+    }
+  }
+
+  /**
+   * operation() runs benchmark 'bench' once on position 'k'.
+   * @param bench is an index into NAMES
+   * @param k is an index into the positions
+   * @return the number of operations done: method calls, or moves checked
+   **/
+  private int operation(int bench, int k) {
+    GameState state = positions[k];
+    int side = state.sideToMove;
+    switch (bench) {
+    case 0:
+      sink += state.validMoves(side).length();
+      return 1;
+    case 1:
+      sink += state.generateMoves(side, buffer);
+      return 1;
+    case 2:
+      for (int i = 0; i < candidates[k].length; i++) {
+	if (state.isValidMove(candidates[k][i], side)) {
+	  sink++;
+	}
+      }
+      return candidates[k].length;
+    case 3:
+      if (state.hasValidNetwork(GameState.BLACK)) {
+	sink++;
+      }
+      if (state.hasValidNetwork(GameState.WHITE)) {
+	sink++;
+      }
+      return 2;
+    case 4:
+      for (int i = 0; i < chips[k].length; i++) {
+	sink += state.networkNeighbors(chips[k][i]).length();
+      }
+      return chips[k].length;
+    case 5:
+      for (int c = 0; c < 4; c++) {
+	int s = c < 2 ? GameState.BLACK : GameState.WHITE;
+	boolean starting = (c & 1) == 0;
+	double[] f = state.features(s, starting ? state.startingNodes(s) : state.endingNodes(s),
+				    starting);
+	sink += f == null ? 0 : (long) f[GameState.MAXLENGTH];
+      }
+      return 4;
+    case 6:
+      for (int c = 0; c < 4; c++) {
+	int s = c < 2 ? GameState.BLACK : GameState.WHITE;
+	double[] f = state.networkFeatures(s, (c & 1) == 0, GameState.FEATUREBUDGET);
+	sink += f == null ? 0 : (long) f[GameState.MAXLENGTH];
+      }
+      return 4;
+    case 7:
+      sink += (long) state.evaluation(side);
+      return 1;
+    default:
+      MachinePlayer player = players[bench - 8][side == GameState.WHITE ? 1 : 0];
+      player.table.clear();
+      player.evalCache.clear();
+      player.currentState = new GameState(state);
+      sink += player.chooseMove().moveKind;
+      return 1;
+    }
+  }
+
+  //returns the number of bytes allocated by the current thread so far
+  private static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+      .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /**
+   * measure() runs benchmark 'bench' and prints its results.
+   * @param bench is an index into NAMES
+   * @param phase names the set of positions
+   **/
+  void measure(int bench, String phase) {
+    double[] rates = new double[ITERATIONS];
+    long operations = 0;
+    long bytes = 0;
+    long nanos = 0;
+    int k = 0;  // the next position
+    for (int iteration = -WARMUP; iteration < ITERATIONS; iteration++) {
+      long done = 0;
+      long start = System.nanoTime();
+      long startBytes = allocatedBytes();
+      long end = start + ITERATIONMILLIS * 1000000;
+      long now;
+      do {
+	done += operation(bench, k);
+	k = (k + 1) % positions.length;
+	now = k == 0 ? System.nanoTime() : start;
+      } while (now < end);
+      long allocated = allocatedBytes() - startBytes;
+      if (iteration >= 0) {
+	rates[iteration] = done * 1e9 / (now - start);
+	operations += done;
+	bytes += allocated;
+	nanos += now - start;
+      }
+    }
+    double min = rates[0];
+    double max = rates[0];
+    for (int i = 1; i < ITERATIONS; i++) {
+      min = Math.min(min, rates[i]);
+      max = Math.max(max, rates[i]);
+    }
+    System.out.println(String.format("%-16s %-6s %14.1f ops/s  [%.1f .. %.1f]  %10.1f B/op  %8.1f MB/s",
+				     NAMES[bench], phase, operations * 1e9 / nanos, min, max,
+				     (double) bytes / operations, bytes * 1e3 / nanos));
+  }
+
+  /**
+   * sweep() times the same fixed-depth search of every position with every
+   * parallel search mode and each of THREADCOUNTS threads, and prints the
+   * fastest of ITERATIONS passes over the positions, after WARMUP passes
+   * with one thread to let the compiler settle.  The solver is off and the
+   * tables are cleared before every position, so that every pass does the
+   * same work.
+   **/
+  void sweep() {
+    int[] modes = {MachinePlayer.ROOTSPLIT, MachinePlayer.LAZYSMP};
+    String[] modeNames = {"ROOTSPLIT", "LAZYSMP"};
+    for (int pass = 0; pass < WARMUP; pass++) {
+      searchAll(modes[0], 1, new SearchStats());
+    }
+    for (int m = 0; m < modes.length; m++) {
+      double oneThread = 0;
+      for (int t = 0; t < THREADCOUNTS.length; t++) {
+	double best = Double.MAX_VALUE;
+	SearchStats total = new SearchStats();
+	for (int pass = 0; pass < ITERATIONS; pass++) {
+	  long start = System.nanoTime();
+	  searchAll(modes[m], THREADCOUNTS[t], total);
+	  best = Math.min(best, (System.nanoTime() - start) / 1e6);
+	}
+	if (t == 0) {
+	  oneThread = best;
+	}
+	System.out.println(String.format("%-9s %2d threads %10.1f ms %12d nodes  fhf %5.3f  speedup %5.2f",
+					 modeNames[m], THREADCOUNTS[t], best,
+					 total.nodes / ITERATIONS, total.failHighFirstRate(),
+					 oneThread / best));
+      }
+    }
+  }
+
+  /**
+   * searchAll() runs chooseMove() to SWEEPDEPTH on every position.
+   * @param mode is the search mode
+   * @param threads is the number of search threads
+   * @param total has the statistics of every search, helpers included,
+   * added to it
+   **/
+  private void searchAll(int mode, int threads, SearchStats total) {
+    MachinePlayer[] searchers = new MachinePlayer[2];
+    for (int c = 0; c < 2; c++) {
+      searchers[c] = new MachinePlayer(c, SWEEPDEPTH);
+      searchers[c].setSolver(0, 0);
+      searchers[c].setSearchMode(mode);
+      searchers[c].setThreads(threads);
+    }
+    for (int k = 0; k < positions.length; k++) {
+      GameState state = positions[k];
+      MachinePlayer player = searchers[state.sideToMove == GameState.WHITE ? 1 : 0];
+      player.table.clear();
+      player.evalCache.clear();
+      player.currentState = new GameState(state);
+      sink += player.chooseMove().moveKind;
+      total.add(player.searchStats());
+    }
+    for (int c = 0; c < 2; c++) {
+      if (searchers[c].pool != null) {
+	searchers[c].pool.shutdown();
+      }
+    }
+  }
+
+  public static void main(String[] args) {
+    String filter = args.length > 0 ? args[0] : "";
+    if (filter.equals("threads")) {
+      GameState[] middle = Positions.range(COUNT, SEED + 1, PLIES[1][0], PLIES[1][1]);
+      new Benchmark(middle).sweep();
+      return;
+    }
+    Benchmark[] sets = new Benchmark[PHASES.length];
+    for (int p = 0; p < PHASES.length; p++) {
+      sets[p] = new Benchmark(Positions.range(COUNT, SEED + p, PLIES[p][0], PLIES[p][1]));
+    }
+    for (int bench = 0; bench < NAMES.length; bench++) {
+      if (NAMES[bench].contains(filter)) {
+	for (int p = 0; p < PHASES.length; p++) {
+	  sets[p].measure(bench, PHASES[p]);
+	}
+      }
+    }
+  }
+}
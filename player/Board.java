@@ -3,19 +3,93 @@ package player;
 /* Board.java */
 
 /**
- * The Board class is an int array representation of a game board.
- * The board can be of any dimension, although by default it is of length 8
+ * The Board class is a bitboard representation of a game board.
+ * Each color has one 64-bit occupancy mask with one bit per square.  Square
+ * (x, y) is bit x * 8 + y, so walking the bits from low to high visits the
+ * squares in the same order as the usual nested "for x, for y" loops.
+ * Moving one square in y is a shift by 1, moving one square in x is a shift
+ * by 8.
  **/
 
 public class Board {
-    
-  private int[][] gameBoard;
+
+  // mask of every square whose y-coordinate is 0 (the top row)
+  static final long TOPROW = 0x0101010101010101L;
+  // mask of every square whose y-coordinate is 7 (the bottom row)
+  static final long BOTTOMROW = 0x8080808080808080L;
+  // mask of every square whose x-coordinate is 0 (the left column)
+  static final long LEFTCOLUMN = 0x00000000000000FFL;
+  // mask of every square whose x-coordinate is 7 (the right column)
+  static final long RIGHTCOLUMN = 0xFF00000000000000L;
+  static final long CORNERS = (TOPROW | BOTTOMROW) & (LEFTCOLUMN | RIGHTCOLUMN);
+  // mask of every square not on an edge of the board
+  static final long INTERIOR = ~(TOPROW | BOTTOMROW | LEFTCOLUMN | RIGHTCOLUMN);
+
+  // RAYS[sq][dir] is the mask of the squares seen from square 'sq' looking
+  // in direction 'dir' (see GameState.DIRX and DIRY), up to the edge of the
+  // board and not including 'sq'.  Directions 0 to 3 lead to lower square
+  // indices and 4 to 7 to higher ones, so the nearest square of a ray is its
+  // highest bit for directions 0 to 3 and its lowest bit for 4 to 7.
+  static final long[][] RAYS = new long[64][8];
+
+  static {
+    for (int sq = 0; sq < 64; sq++) {
+      for (int dir = 0; dir < 8; dir++) {
+	int x = squareX(sq) + GameState.DIRX[dir];
+	int y = squareY(sq) + GameState.DIRY[dir];
+	while (x >= 0 && y >= 0 && x < 8 && y < 8) {
+	  RAYS[sq][dir] |= bit(x, y);
+	  x += GameState.DIRX[dir];
+	  y += GameState.DIRY[dir];
+	}
+      }
+    }
+  }
+
+  private long blackChips;
+  private long whiteChips;
   private int BOARDLENGTH = GameState.BOARDLENGTH;
 
-  //constructs a game board
+  //constructs an empty game board
   public Board() {
-         
-    gameBoard = new int[BOARDLENGTH][BOARDLENGTH];
+    blackChips = 0;
+    whiteChips = 0;
+  }
+
+  //constructs a game board holding the same chips as 'other'
+  public Board(Board other) {
+    blackChips = other.blackChips;
+    whiteChips = other.whiteChips;
+  }
+
+  /**
+   * square() returns the bit index of the square (x, y).
+   * @param x is the x-coordinate on the board.
+   * @param y is the y-coordinate on the board.
+   * @return the index of the square, between 0 and 63.
+   **/
+  static int square(int x, int y) {
+    return (x << 3) | y;
+  }
+
+  /**
+   * bit() returns the single-bit mask of the square (x, y).
+   * @param x is the x-coordinate on the board.
+   * @param y is the y-coordinate on the board.
+   * @return a mask with only the bit of (x, y) set.
+   **/
+  static long bit(int x, int y) {
+    return 1L << ((x << 3) | y);
+  }
+
+  //returns the x-coordinate of the square with the given bit index
+  static int squareX(int square) {
+    return square >>> 3;
+  }
+
+  //returns the y-coordinate of the square with the given bit index
+  static int squareY(int square) {
+    return square & 7;
   }
 
   /**
@@ -25,11 +99,17 @@ public class Board {
    * @param x  is the x-coordinate on the board.
    * @param y is the y-coordintate on the board.
    * @return an int representation of a chip (BLACK of WHITE) or EMPTY.
-   **/    
+   **/
   public int squareContents(int x, int y) {
-    return gameBoard[x][y];
+    long b = bit(x, y);
+    if ((blackChips & b) != 0) {
+      return GameState.BLACK;
+    } else if ((whiteChips & b) != 0) {
+      return GameState.WHITE;
+    }
+    return GameState.EMPTY;
   }
-    
+
   /**
    * squareContents() takes a Coordinate object and returns an int
    * representing the color chip found at the coordinates on the board.
@@ -37,7 +117,7 @@ public class Board {
    * @return an integer representing a color on the board (BLACK, WHITE, or EMPTY)
    **/
   public int squareContents(Coordinate c) {
-    return gameBoard[c.x][c.y];
+    return squareContents(c.x, c.y);
   }
   /**
    * set() takes x and y coordinates and a color in the form of an integer, and sets that color to those coordinates on the board
@@ -47,7 +127,14 @@ public class Board {
    **/
 
   public void set(int x, int y, int content) {
-    gameBoard[x][y] = content;
+    long b = bit(x, y);
+    blackChips &= ~b;
+    whiteChips &= ~b;
+    if (content == GameState.BLACK) {
+      blackChips |= b;
+    } else if (content == GameState.WHITE) {
+      whiteChips |= b;
+    }
   }
 
   /**
@@ -56,7 +143,152 @@ public class Board {
    * @param content is color of the chip, as a number
    **/
   public void set(Coordinate c, int content) {
-    gameBoard[c.x][c.y] = content;
+    set(c.x, c.y, content);
+  }
+
+  /**
+   * chips() returns the occupancy mask of the given color.
+   * @param side is BLACK or WHITE
+   * @return a mask with one bit set for every chip of color 'side'
+   **/
+  public long chips(int side) {
+    if (side == GameState.BLACK) {
+      return blackChips;
+    } else {
+      return whiteChips;
+    }
+  }
+
+  /**
+   * enemyChips() returns the occupancy mask of the opponent of 'side'.
+   * @param side is BLACK or WHITE
+   * @return a mask with one bit set for every chip not of color 'side'
+   **/
+  public long enemyChips(int side) {
+    return chips(GameState.opponent(side));
+  }
+
+  //returns a mask with one bit set for every chip on the board
+  public long occupied() {
+    return blackChips | whiteChips;
+  }
+
+  //returns a mask with one bit set for every empty square (corners included)
+  public long empty() {
+    return ~(blackChips | whiteChips);
+  }
+
+  /**
+   * goalArea() returns the mask of both goal areas of 'side' (never the corners).
+   * @param side is BLACK or WHITE
+   * @return the goal-area mask of 'side'
+   **/
+  static long goalArea(int side) {
+    return startGoal(side) | endGoal(side);
+  }
+
+  /**
+   * startGoal() returns the mask of the goal area where networks of 'side'
+   * are searched from: the top row for BLACK, the left column for WHITE.
+   * @param side is BLACK or WHITE
+   * @return the mask of the starting goal area
+   **/
+  static long startGoal(int side) {
+    if (side == GameState.BLACK) {
+      return TOPROW & ~CORNERS;
+    } else {
+      return LEFTCOLUMN & ~CORNERS;
+    }
+  }
+
+  /**
+   * endGoal() returns the mask of the goal area where networks of 'side'
+   * end: the bottom row for BLACK, the right column for WHITE.
+   * @param side is BLACK or WHITE
+   * @return the mask of the ending goal area
+   **/
+  static long endGoal(int side) {
+    if (side == GameState.BLACK) {
+      return BOTTOMROW & ~CORNERS;
+    } else {
+      return RIGHTCOLUMN & ~CORNERS;
+    }
+  }
+
+  /**
+   * forbidden() returns the mask of squares 'side' may never occupy: the
+   * opponent's goal areas and the four corners.
+   * @param side is BLACK or WHITE
+   * @return the mask of squares closed to 'side'
+   **/
+  static long forbidden(int side) {
+    return goalArea(GameState.opponent(side)) | CORNERS;
+  }
+
+  /**
+   * adjacent() returns the mask of all squares touching (orthogonally or
+   * diagonally) some square of 'mask', excluding the squares of 'mask'.
+   * @param mask is a set of squares
+   * @return the 8-neighbourhood of 'mask'
+   **/
+  static long adjacent(long mask) {
+    long column = mask | ((mask >>> 1) & ~BOTTOMROW) | ((mask << 1) & ~TOPROW);
+    return (column | (column << 8) | (column >>> 8)) & ~mask;
+  }
+
+  /**
+   * clustered() returns the mask of the squares where a new chip of a color
+   * whose chips are 'own' would form a cluster of three: squares next to two
+   * or more chips of 'own', or next to a chip of 'own' that already touches
+   * another.  The answer is only meaningful for squares not in 'own'.
+   * @param own is the mask of the chips of one color
+   * @return the mask of squares closed to that color by the cluster rule
+   **/
+  static long clustered(long own) {
+    // the chips moved one square in each of the eight directions
+    long up = (own >>> 1) & ~BOTTOMROW;
+    long down = (own << 1) & ~TOPROW;
+    long left = own >>> 8;
+    long right = own << 8;
+    long upLeft = up >>> 8;
+    long upRight = up << 8;
+    long downLeft = down >>> 8;
+    long downRight = down << 8;
+    // count neighbours per square, stopping at two
+    long ones = up | down;  // squares next to at least one chip
+    long twos = up & down;  // squares next to at least two chips
+    twos |= ones & left;
+    ones |= left;
+    twos |= ones & right;
+    ones |= right;
+    twos |= ones & upLeft;
+    ones |= upLeft;
+    twos |= ones & upRight;
+    ones |= upRight;
+    twos |= ones & downLeft;
+    ones |= downLeft;
+    twos |= ones & downRight;
+    ones |= downRight;
+    return twos | adjacent(own & ones);
+  }
+
+  /**
+   * firstOnRay() returns the square nearest to 'sq' in direction 'dir' that
+   * is in 'mask'.
+   * @param sq is the square looked from
+   * @param dir is the direction, from 0 to 7
+   * @param mask is the set of squares that stop the look, usually the chips
+   * @return the index of the first square of 'mask' seen, or -1 if none
+   **/
+  static int firstOnRay(int sq, int dir, long mask) {
+    long seen = RAYS[sq][dir] & mask;
+    if (seen == 0) {
+      return -1;
+    } else if (dir < 4) {
+      return 63 - Long.numberOfLeadingZeros(seen);
+    } else {
+      return Long.numberOfTrailingZeros(seen);
+    }
   }
 
   /**
@@ -68,9 +300,9 @@ public class Board {
     for(int j=0; j<BOARDLENGTH; j++) {
       ret+="|";
       for(int i=0; i<BOARDLENGTH; i++) {
-	if(gameBoard[i][j]==GameState.BLACK) {
+	if(squareContents(i, j)==GameState.BLACK) {
 	  ret+=" B ";
-	} else if(gameBoard[i][j]==GameState.WHITE) {
+	} else if(squareContents(i, j)==GameState.WHITE) {
 	  ret+=" W ";
 	} else {
 	  ret+="   ";
@@ -81,4 +313,3 @@ public class Board {
     return ret;
   }
 }
-
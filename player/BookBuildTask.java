@@ -0,0 +1,36 @@
+/* BookBuildTask.java */
+
+package player;
+
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *  A fork/join task that runs one searcher of OpeningBook.build(): the
+ *  searcher takes positions one at a time from a counter shared by all the
+ *  searchers and searches them, until there are none left.  build() starts
+ *  one task per thread.
+ */
+class BookBuildTask extends RecursiveAction {
+
+  private static final long serialVersionUID = 1L;
+
+  private MachinePlayer searcher;  // the searcher that runs this task
+  private GameState[] positions;   // the positions to search
+  private int[] results;           // OpeningBook.search() of each position
+  private AtomicInteger next;      // index of the next position to search
+
+  BookBuildTask(MachinePlayer searcher, GameState[] positions, int[] results,
+		AtomicInteger next) {
+    this.searcher = searcher;
+    this.positions = positions;
+    this.results = results;
+    this.next = next;
+  }
+
+  protected void compute() {
+    for (int i = next.getAndIncrement(); i < positions.length; i = next.getAndIncrement()) {
+      results[i] = OpeningBook.search(searcher, positions[i]);
+    }
+  }
+}
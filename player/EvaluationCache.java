@@ -0,0 +1,146 @@
+/* EvaluationCache.java */
+
+package player;
+
+/**
+ *  A fixed-size, direct-mapped cache of GameState.evaluation() results keyed
+ *  by GameState.boardKey().  Evaluation depends only on the chips on the
+ *  board, so positions reached by ADD moves in a different order, or with a
+ *  different side to move, share an entry.  A new result simply replaces
+ *  whatever was in its slot.
+ *
+ *  An entry is two longs: a data word, and the key XORed with the data
+ *  word, as in TranspositionTable.  A lookup accepts an entry only if the
+ *  two words XOR back to the whole key, so two boards that share a slot are
+ *  never mistaken for each other, and an entry torn by two threads writing
+ *  at once reads as a miss.  The data word holds, from the low bits to the
+ *  high bits: score from WHITE's point of view (32 bits, fixed point) |
+ *  BLACK has a network (1) | WHITE has a network (1) | score known (1) |
+ *  valid (1).  Since the score is stored from WHITE's side, one entry
+ *  answers for both sides.  The network flags are stored even when the
+ *  score is not, so the terminal tests of the search hit the cache as well.
+ *
+ *  Several search threads may share a cache without locks.  Lookups and
+ *  hits are counted in the SearchStats of the thread that asks, so the
+ *  threads share no counters.
+ */
+public class EvaluationCache {
+
+  static final int ENTRYBYTES = 16;      // bytes used by one entry: two longs
+  static final double SCORESCALE = 1000; // scores are stored as fixed point
+
+  private static final long BLACKNETWORK = 1L << 32;
+  private static final long WHITENETWORK = 1L << 33;
+  private static final long SCOREKNOWN = 1L << 34;
+  private static final long VALID = 1L << 35;
+
+  private long[] slots;  // key ^ data at 2 * i, data at 2 * i + 1
+  private int mask;
+
+  /**
+   * Constructs a cache that uses at most 'megabytes' megabytes.  The number
+   * of entries is rounded down to a power of two, and is at least two.
+   **/
+  public EvaluationCache(int megabytes) {
+    long budget = (long) megabytes << 20;
+    int size = 2;
+    while ((long) size * 2 * ENTRYBYTES <= budget && size < (1 << 29)) {
+      size *= 2;
+    }
+    slots = new long[2 * size];
+    mask = size - 1;
+  }
+
+  //returns the number of entries in the cache
+  public int size() {
+    return slots.length / 2;
+  }
+
+  //empties the cache
+  public void clear() {
+    for (int i = 0; i < slots.length; i++) {
+      slots[i] = 0;
+    }
+  }
+
+  /**
+   * hasNetwork() tells whether either side has a network in 'state'.
+   * @param state is the position
+   * @param stats counts the lookup, and the hit if there is one
+   * @return true if BLACK or WHITE has a network
+   **/
+  public boolean hasNetwork(GameState state, SearchStats stats) {
+    long entry = lookup(state.boardKey());
+    stats.cacheProbes++;
+    if (entry != 0) {
+      stats.cacheHits++;
+    } else {
+      entry = networks(state);
+      store(state.boardKey(), entry);
+    }
+    return (entry & (BLACKNETWORK | WHITENETWORK)) != 0;
+  }
+
+  /**
+   * evaluation() returns state.evaluation(side), from the cache if it can.
+   * @param state is the position
+   * @param side is the side the score is seen from (BLACK or WHITE)
+   * @param stats counts the lookup, and the hit if there is one
+   * @return the same value as state.evaluation(side), up to 1 / SCORESCALE
+   **/
+  public double evaluation(GameState state, int side, SearchStats stats) {
+    long key = state.boardKey();
+    long entry = lookup(key);
+    stats.cacheProbes++;
+    if (entry != 0 && (entry & (SCOREKNOWN | BLACKNETWORK | WHITENETWORK)) != 0) {
+      stats.cacheHits++;
+    } else {
+      if (entry == 0) {
+	entry = networks(state);
+      }
+      if ((entry & (BLACKNETWORK | WHITENETWORK)) == 0) {
+	long score = Math.round(state.featureScore(GameState.WHITE) * SCORESCALE);
+	entry |= SCOREKNOWN | (score & 0xFFFFFFFFL);
+      }
+      store(key, entry);
+    }
+    long own = side == GameState.WHITE ? WHITENETWORK : BLACKNETWORK;
+    long enemy = side == GameState.WHITE ? BLACKNETWORK : WHITENETWORK;
+    if ((entry & own) != 0) {
+      return GameState.EVALMAX;
+    } else if ((entry & enemy) != 0) {
+      return GameState.EVALMIN;
+    }
+    double score = ((int) entry) / SCORESCALE;
+    return side == GameState.WHITE ? score : -score;
+  }
+
+  //returns a new entry holding the network flags of 'state' and no score
+  private static long networks(GameState state) {
+    long entry = VALID;
+    if (state.hasValidNetwork(GameState.BLACK)) {
+      entry |= BLACKNETWORK;
+    }
+    if (state.hasValidNetwork(GameState.WHITE)) {
+      entry |= WHITENETWORK;
+    }
+    return entry;
+  }
+
+  //returns the data word of 'key', or 0 if it is not cached
+  private long lookup(long key) {
+    int e = (int) key & mask;
+    long entry = slots[2 * e + 1];
+    if (entry != 0 && (slots[2 * e] ^ entry) == key) {
+      return entry;
+    }
+    return 0;
+  }
+
+  //stores 'entry' as the data word of 'key'
+  private void store(long key, long entry) {
+    int e = (int) key & mask;
+    slots[2 * e] = key ^ entry;
+    slots[2 * e + 1] = entry;
+  }
+}
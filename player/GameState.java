@@ -3,6 +3,9 @@ package player;
 /* GameState.java */
 //holds information about the current state of the board, including evaluation functions and the board with positions
 
+import java.util.Arrays;
+import java.util.Random;
+
 public class GameState {
 
   //values that are stored in board that correspond to different possibilities
@@ -11,6 +14,7 @@ public class GameState {
   final static int WHITE = 1;
 
   final static int BOARDLENGTH = 8;
+  final static int MAXMOVES = 1024;  // more than the most moves any position can have
 
   // evaluation function statics
   final static double EVALMIN = -100;
@@ -19,48 +23,180 @@ public class GameState {
   final static int EXPANDED = 1;      //index constant
   final static int DX = 2;            //index constant
   final static int DY = 3;            //index constant
+  final static int FEATUREBUDGET = 1024; // most path states networkFeatures() expands per call
+  final static double[] FEATUREWEIGHTS = {1.0, 1.0, -1.0, -1.0}; //constant multipliers for features
+
+  // the eight directions, starting north and going counter-clockwise;
+  // direction d and direction d + 4 are opposite
+  final static int[] DIRX = { 0, -1, -1, -1, 0, 1, 1, 1 };
+  final static int[] DIRY = { -1, -1, 0, 1, 1, 1, 0, -1 };
+
+  // Zobrist keys: one per (color, square), one per (color, chip count) and
+  // one that is mixed in while BLACK is the side to move.  The seed is fixed
+  // so that keys are the same from one run to the next.
+  private final static long[][] SQUAREKEYS = new long[2][BOARDLENGTH * BOARDLENGTH];
+  private final static long[][] COUNTKEYS = new long[2][11];
+  private final static long BLACKTOMOVEKEY;
+
+  static {
+    Random random = new Random(61L);
+    for (int c = 0; c < 2; c++) {
+      for (int sq = 0; sq < BOARDLENGTH * BOARDLENGTH; sq++) {
+	SQUAREKEYS[c][sq] = random.nextLong();
+      }
+      for (int n = 0; n < COUNTKEYS[c].length; n++) {
+	COUNTKEYS[c][n] = random.nextLong();
+      }
+    }
+    BLACKTOMOVEKEY = random.nextLong();
+  }
 
   protected Board gameBoard;
   protected int blackCount;
   protected int whiteCount;
+  protected int sideToMove;  // the opponent of whoever moved last; WHITE at the start
+  protected long hash;       // Zobrist key of the position, kept up to date by move() and unmove()
+  protected long[] legalAdds = new long[2];  // per color index, the squares an ADD move may go to
+  protected long networkTests;  // hasValidNetwork() calls on this object, for SearchStats
+  protected long winningTries;  // moves winningMove() has tried on this object
+
+  // scratch space of networkFeatures(): the path states of the layer being
+  // expanded and of the next layer, and the layer each (square, line) pair
+  // was last added to
+  private int[] layerStates = new int[4 * BOARDLENGTH * BOARDLENGTH + BOARDLENGTH];
+  private long[] layerVisited = new long[layerStates.length];
+  private int[] nextStates = new int[layerStates.length];
+  private long[] nextVisited = new long[layerStates.length];
+  private int[] stateStamps = new int[4 * BOARDLENGTH * BOARDLENGTH];
+  private int stamp;
+
+  // the network graph, kept up to date by setSquare() and undo(): bit 'dir'
+  // of linkDirs[sq] is set if the chip on 'sq' sees a chip of its own color
+  // in direction 'dir', and links[8 * sq + dir] is then the square of that
+  // chip.  Entries of empty squares mean nothing.
+  protected int[] links = new int[8 * BOARDLENGTH * BOARDLENGTH];
+  protected int[] linkDirs = new int[BOARDLENGTH * BOARDLENGTH];
+  private double[][] featureScratch = new double[4][4];  // features of the four goal areas
+
+  // undo stack of applyUnchecked(): each record is a packed move, with bit
+  // 14 set if WHITE made it and bit 15 set if WHITE was to move before it;
+  // the Zobrist key and both legalAdds masks from before the move are kept
+  // alongside
+  private int[] undoMoves = new int[64];
+  private long[] undoHashes = new long[undoMoves.length];
+  private long[] undoLegalAdds = new long[2 * undoMoves.length];
+  private int undoTop;  // number of records on the stack
+  final static int WHITEMOVED = 1 << 14;
+  final static int WHITETOMOVE = 1 << 15;
 
   public GameState() {
     gameBoard = new Board();
     blackCount = 0;
     whiteCount = 0;
+    sideToMove = WHITE;
+    hash = computeHash();
+    legalAdds[0] = computeLegalAdds(BLACK);
+    legalAdds[1] = computeLegalAdds(WHITE);
+  }
+
+  //constructs a copy of 'other' that can be searched independently of it
+  public GameState(GameState other) {
+    gameBoard = new Board(other.gameBoard);
+    blackCount = other.blackCount;
+    whiteCount = other.whiteCount;
+    sideToMove = other.sideToMove;
+    hash = other.hash;
+    legalAdds[0] = other.legalAdds[0];
+    legalAdds[1] = other.legalAdds[1];
+    buildLinks();
+  }
+
+  /**
+   * hashKey() returns the 64-bit Zobrist key of this position.  The key
+   * covers every chip on the board, the side to move and both chip counts,
+   * and is updated incrementally, so reading it costs O(1).
+   * @return the Zobrist key of the position
+   **/
+  public long hashKey() {
+    return hash;
+  }
+
+  /**
+   * boardKey() returns a key that covers every chip on the board and both
+   * chip counts, but not the side to move: hashKey() without the side to
+   * move key.  Positions with the same key have the same evaluation().
+   * @return the board key of the position
+   **/
+  public long boardKey() {
+    return sideToMove == BLACK ? hash ^ BLACKTOMOVEKEY : hash;
+  }
+
+  /**
+   * computeHash() recomputes the Zobrist key of this position from scratch.
+   * It should always agree with hashKey().
+   * @return the Zobrist key of the position
+   **/
+  protected long computeHash() {
+    long h = COUNTKEYS[colorIndex(BLACK)][blackCount]
+      ^ COUNTKEYS[colorIndex(WHITE)][whiteCount];
+    for (int c = 0; c < 2; c++) {
+      for (long rest = gameBoard.chips(c == 0 ? BLACK : WHITE); rest != 0; rest &= rest - 1) {
+	h ^= SQUAREKEYS[c][Long.numberOfTrailingZeros(rest)];
+      }
+    }
+    if (sideToMove == BLACK) {
+      h ^= BLACKTOMOVEKEY;
+    }
+    return h;
+  }
+
+  //returns the index of 'side' in the Zobrist tables: 0 for BLACK, 1 for WHITE
+  protected static int colorIndex(int side) {
+    return side == BLACK ? 0 : 1;
   }
 
   /**
    * evaluation() returns a double that is a representation of how good the
-   * state is for the player indicated by side
+   * state is for the player indicated by side.  It is also the terminal test
+   * of a leaf: the result is exactly EVALMAX if 'side' has a network, exactly
+   * EVALMIN if only its opponent has one, and strictly between them otherwise.
+   * The network tests and the features of all four goal areas read the
+   * network graph kept up to date by every move, so nothing is rebuilt.
    * 
    * @return double of calculated evaluation function of the game state
    **/
   public double evaluation(int side) {
-    double[] constants = {1.0, 1.0, -1.0, -1.0}; //constant multipliers for features
-    MachinePlayer.debugPrint("evaluation start:");
-    double[] myEval1 = features(side, startingNodes(side), true);
-    double[] myEval2 = features(side, endingNodes(side), false);
-    double[] enemyEval1 = features(opponent(side),
-				   startingNodes(opponent(side)), true);
-    double[] enemyEval2 = features(opponent(side),
-				   endingNodes(opponent(side)), false);
-    if (myEval1 == null) {
+    int enemy = opponent(side);
+    if (hasValidNetwork(side)) {
       return EVALMAX;
     }
-    if (enemyEval1 == null) {
+    if (hasValidNetwork(enemy)) {
       return EVALMIN;
     }
+    return featureScore(side);
+  }
+
+  /**
+   * featureScore() returns the part of evaluation() that does not look for
+   * networks: the weighted features of all four goal areas, kept strictly
+   * between EVALMIN and EVALMAX.  It is only meaningful when neither side
+   * has a network, and featureScore(BLACK) is always -featureScore(WHITE).
+   * @param side is the side the score is seen from (BLACK or WHITE)
+   * @return the score of the position for 'side'
+   **/
+  protected double featureScore(int side) {
+    int enemy = opponent(side);
+    double[] myEval1 = linkFeatures(side, true, FEATUREBUDGET, featureScratch[0]);
+    double[] myEval2 = linkFeatures(side, false, FEATUREBUDGET, featureScratch[1]);
+    double[] enemyEval1 = linkFeatures(enemy, true, FEATUREBUDGET, featureScratch[2]);
+    double[] enemyEval2 = linkFeatures(enemy, false, FEATUREBUDGET, featureScratch[3]);
 
     double ret = 0;
 
-    for(int i = 0; i<constants.length; i++) {
-      ret+= (myEval1[i]+myEval2[i]-enemyEval1[i]-enemyEval2[i])*constants[i];
+    for(int i = 0; i<FEATUREWEIGHTS.length; i++) {
+      ret+= (myEval1[i]+myEval2[i]-enemyEval1[i]-enemyEval2[i])*FEATUREWEIGHTS[i];
     }
 
-    MachinePlayer.debugPrint("MYEVAL1 => expanded: "+myEval1[EXPANDED]+"  dx: "+myEval1[DX]+"   dy: "+myEval1[DY]);
-    MachinePlayer.debugPrint("MYEVAL2 => expanded: "+myEval2[EXPANDED]+"  dx: "+myEval2[DX]+"   dy: "+myEval2[DY]);
-
     if(ret<=EVALMIN) {
       ret = EVALMIN+1;
     } else if(ret>=EVALMAX) {
@@ -69,7 +205,90 @@ public class GameState {
 
     return ret;
   }
-  
+
+  /**
+   * buildLinks() rebuilds the network graph of both colors from scratch:
+   * for every chip, the chips of its own color it sees.  Sight goes both
+   * ways, so only the four directions that lead to higher squares are looked
+   * along, and each pair found is linked in both directions.
+   **/
+  protected void buildLinks() {
+    long black = gameBoard.chips(BLACK);
+    long chips = gameBoard.occupied();
+    for (long rest = chips; rest != 0; rest &= rest - 1) {
+      linkDirs[Long.numberOfTrailingZeros(rest)] = 0;
+    }
+    for (long rest = chips; rest != 0; rest &= rest - 1) {
+      int sq = Long.numberOfTrailingZeros(rest);
+      long color = (black >>> sq) & 1;
+      for (int dir = 4; dir < 8; dir++) {
+	int seen = Board.firstOnRay(sq, dir, chips);
+	if (seen >= 0 && ((black >>> seen) & 1) == color) {
+	  links[8 * sq + dir] = seen;
+	  linkDirs[sq] |= 1 << dir;
+	  links[8 * seen + dir - 4] = sq;
+	  linkDirs[seen] |= 1 << (dir - 4);
+	}
+      }
+    }
+  }
+
+  /**
+   * updateLinks() brings the network graph up to date after a chip came onto
+   * or left square 'sq'.  Only lines of sight through 'sq' change, so it
+   * looks for the nearest chip on each side of 'sq' along each of the four
+   * lines through it, and relinks those chips to 'sq' or to each other.
+   * @param sq is the square that changed
+   **/
+  protected void updateLinks(int sq) {
+    long chips = gameBoard.occupied();
+    long black = gameBoard.chips(BLACK);
+    boolean placed = ((chips >>> sq) & 1) != 0;
+    if (placed) {
+      linkDirs[sq] = 0;
+    }
+    for (int dir = 0; dir < 4; dir++) {
+      // 'a' sees 'sq' in direction dir + 4, 'b' sees it in direction dir
+      int a = Board.firstOnRay(sq, dir, chips);
+      int b = Board.firstOnRay(sq, dir + 4, chips);
+      if (placed) {
+	long color = (black >>> sq) & 1;
+	if (a >= 0) {
+	  if (((black >>> a) & 1) == color) {
+	    link(a, dir + 4, sq);
+	    link(sq, dir, a);
+	  } else {
+	    linkDirs[a] &= ~(1 << (dir + 4));
+	  }
+	}
+	if (b >= 0) {
+	  if (((black >>> b) & 1) == color) {
+	    link(b, dir, sq);
+	    link(sq, dir + 4, b);
+	  } else {
+	    linkDirs[b] &= ~(1 << dir);
+	  }
+	}
+      } else if (a >= 0 && b >= 0 && ((black >>> a) & 1) == ((black >>> b) & 1)) {
+	link(a, dir + 4, b);
+	link(b, dir, a);
+      } else {
+	if (a >= 0) {
+	  linkDirs[a] &= ~(1 << (dir + 4));
+	}
+	if (b >= 0) {
+	  linkDirs[b] &= ~(1 << dir);
+	}
+      }
+    }
+  }
+
+  //records that the chip on 'from' sees the chip on 'to' in direction 'dir'
+  private void link(int from, int dir, int to) {
+    links[8 * from + dir] = to;
+    linkDirs[from] |= 1 << dir;
+  }
+
   /**
    * opponent() returns the integer representation for the opponent
    * @param side is the integer representation of the player or machine
@@ -90,21 +309,173 @@ public class GameState {
    * @return returns a boolean, true if the move is made, and false if the move is invalid or the move is a quit move
    **/
   protected boolean move(Move m, int side) {
-    if (m.moveKind == Move.QUIT || !isValidMove(m, side)) {
+    if (!onBoard(m)) {
       return false;
     }
-    if (m.moveKind == Move.STEP) {
-      gameBoard.set(m.x2, m.y2, EMPTY);
+    return move(PackedMove.pack(m), side);
+  }
+
+  /** move() changes the state of the board by adding or stepmoving, without allocating anything
+   * @param m is the move, packed with PackedMove
+   * @param side is the int representation of the side for which the move is made (BLACK or WHITE)
+   * @return returns a boolean, true if the move is made, and false if the move is invalid or the move is a quit move
+   **/
+  protected boolean move(int m, int side) {
+    if (!isValidMove(m, side)) {
+      return false;
+    }
+    play(m, side);
+    return true;
+  }
+
+  /**
+   * applyUnchecked() makes a move that is known to be valid, such as one
+   * from generateMoves(), without checking it, and pushes what undo() needs
+   * to take it back.  Moves made this way must be taken back with undo(),
+   * last first, before the state is changed any other way.
+   * @param m is the move, packed with PackedMove
+   * @param side is the side making the move (BLACK or WHITE)
+   **/
+  protected void applyUnchecked(int m, int side) {
+    if (undoTop == undoMoves.length) {
+      undoMoves = Arrays.copyOf(undoMoves, 2 * undoTop);
+      undoHashes = Arrays.copyOf(undoHashes, 2 * undoTop);
+      undoLegalAdds = Arrays.copyOf(undoLegalAdds, 4 * undoTop);
+    }
+    undoMoves[undoTop] = m | (side == WHITE ? WHITEMOVED : 0)
+      | (sideToMove == WHITE ? WHITETOMOVE : 0);
+    undoHashes[undoTop] = hash;
+    undoLegalAdds[2 * undoTop] = legalAdds[0];
+    undoLegalAdds[2 * undoTop + 1] = legalAdds[1];
+    undoTop++;
+    play(m, side);
+  }
+
+  /**
+   * undo() takes back the last move made by applyUnchecked(), restoring the
+   * board, the chip counts, the side to move, the Zobrist key, the legal ADD
+   * masks and the network graph.
+   **/
+  protected void undo() {
+    undoTop--;
+    int record = undoMoves[undoTop];
+    int side = (record & WHITEMOVED) != 0 ? WHITE : BLACK;
+    gameBoard.set(PackedMove.x1(record), PackedMove.y1(record), EMPTY);
+    updateLinks(Board.square(PackedMove.x1(record), PackedMove.y1(record)));
+    if (PackedMove.kind(record & (WHITEMOVED - 1)) == Move.STEP) {
+      gameBoard.set(PackedMove.x2(record), PackedMove.y2(record), side);
+      updateLinks(Board.square(PackedMove.x2(record), PackedMove.y2(record)));
+    } else if (side == BLACK) {
+      blackCount--;
+    } else {
+      whiteCount--;
     }
-    if (m.moveKind == Move.ADD) {
+    sideToMove = (record & WHITETOMOVE) != 0 ? WHITE : BLACK;
+    hash = undoHashes[undoTop];
+    legalAdds[0] = undoLegalAdds[2 * undoTop];
+    legalAdds[1] = undoLegalAdds[2 * undoTop + 1];
+  }
+
+  //makes the packed move 'm' for 'side' without checking it
+  private void play(int m, int side) {
+    if (PackedMove.kind(m) == Move.STEP) {
+      setSquare(PackedMove.x2(m), PackedMove.y2(m), side, EMPTY);
+    } else {
       if (side == BLACK) {
-	blackCount++;
+	setCount(side, blackCount + 1);
       } else {
-	whiteCount++;
+	setCount(side, whiteCount + 1);
       }
     }
-    gameBoard.set(m.x1, m.y1, side);
-    return true;
+    setSquare(PackedMove.x1(m), PackedMove.y1(m), EMPTY, side);
+    setSideToMove(opponent(side));
+  }
+
+  //returns true if every coordinate 'm' uses is on the board
+  protected static boolean onBoard(Move m) {
+    if (m.x1 < 0 || m.y1 < 0 || m.x1 >= BOARDLENGTH || m.y1 >= BOARDLENGTH) {
+      return false;
+    }
+    return m.moveKind != Move.STEP
+      || (m.x2 >= 0 && m.y2 >= 0 && m.x2 < BOARDLENGTH && m.y2 < BOARDLENGTH);
+  }
+
+  /**
+   * setSquare() changes the contents of a square from 'before' to 'after' and
+   * updates the Zobrist key, the legal ADD masks and the network graph to match.
+   * @param x is the x-coordinate
+   * @param y is the y-coordinate
+   * @param before is the color currently on the square (BLACK, WHITE or EMPTY)
+   * @param after is the color to be put on the square (BLACK, WHITE or EMPTY)
+   **/
+  protected void setSquare(int x, int y, int before, int after) {
+    int sq = Board.square(x, y);
+    if (before != EMPTY) {
+      hash ^= SQUAREKEYS[colorIndex(before)][sq];
+    }
+    if (after != EMPTY) {
+      hash ^= SQUAREKEYS[colorIndex(after)][sq];
+    }
+    gameBoard.set(x, y, after);
+    updateLegalAdds(sq, before, after);
+    updateLinks(sq);
+  }
+
+  /**
+   * computeLegalAdds() works out from scratch the squares where 'side' may
+   * add a chip: empty squares outside the corners and the opponent's goal
+   * areas where the new chip forms no cluster.
+   * @param side is BLACK or WHITE
+   * @return the mask of legal ADD targets of 'side'
+   **/
+  protected long computeLegalAdds(int side) {
+    return gameBoard.empty() & ~Board.forbidden(side)
+      & ~Board.clustered(gameBoard.chips(side));
+  }
+
+  /**
+   * updateLegalAdds() brings both legal ADD masks up to date after square
+   * 'sq' changed from 'before' to 'after'.  The mask of a color whose chips
+   * changed is recomputed whole: Board.clustered() works on every square at
+   * once, so that costs no more than recomputing a few.  The chips of the
+   * other color did not change, so for it only square 'sq' itself, which was
+   * filled or emptied, can change.
+   * @param sq is the square that changed
+   * @param before is the color that was on the square (BLACK, WHITE or EMPTY)
+   * @param after is the color now on the square (BLACK, WHITE or EMPTY)
+   **/
+  protected void updateLegalAdds(int sq, int before, int after) {
+    long target = 1L << sq;
+    for (int c = 0; c < 2; c++) {
+      int side = c == 0 ? BLACK : WHITE;
+      if (side == before || side == after) {
+	legalAdds[c] = computeLegalAdds(side);
+      } else if (after == EMPTY && (target & Board.forbidden(side)) == 0
+		 && !formsCluster(target, gameBoard.chips(side))) {
+	legalAdds[c] |= target;
+      } else {
+	legalAdds[c] &= ~target;
+      }
+    }
+  }
+
+  //sets the chip count of 'side' to 'count' and updates the Zobrist key
+  protected void setCount(int side, int count) {
+    if (side == BLACK) {
+      hash ^= COUNTKEYS[0][blackCount] ^ COUNTKEYS[0][count];
+      blackCount = count;
+    } else {
+      hash ^= COUNTKEYS[1][whiteCount] ^ COUNTKEYS[1][count];
+      whiteCount = count;
+    }
+  }
+
+  //records 'side' as the side to move and updates the Zobrist key
+  protected void setSideToMove(int side) {
+    if (side != sideToMove) {
+      hash ^= BLACKTOMOVEKEY;
+      sideToMove = side;
+    }
   }
 
 
@@ -115,25 +486,46 @@ public class GameState {
    * @return returns a boolean, true if the unmove was succesful and walse otherwise
    **/
   protected boolean unmove(Move m, int side) {
-    if (m.moveKind == Move.QUIT) {
+    if (!onBoard(m)) {
+      return false;
+    }
+    return unmove(PackedMove.pack(m), side);
+  }
+
+  /**
+   * unmove() takes a packed move and undoes it, without allocating anything
+   * @param m is the move to be undone, packed with PackedMove
+   * @param side is the int representation of the side for which the move needs to be undone. (BLACK or WHITE)
+   * @return returns a boolean, true if the unmove was succesful and walse otherwise
+   **/
+  protected boolean unmove(int m, int side) {
+    int kind = PackedMove.kind(m);
+    if (kind == Move.QUIT) {
       return false;
-    } else if (m.moveKind == Move.ADD) {
-      if (gameBoard.squareContents(m.x1, m.y1) != side) {
+    } else if (kind == Move.ADD) {
+      if (gameBoard.squareContents(PackedMove.x1(m), PackedMove.y1(m)) != side) {
 	System.out.println("false");
 
 	return false;
       } else {
 	if (side == BLACK) {
-	  blackCount--;
+	  setCount(side, blackCount - 1);
 	} else {
-	  whiteCount--;
+	  setCount(side, whiteCount - 1);
 	}
 	// remove from board
-	gameBoard.set(m.x1, m.y1, EMPTY);
+	setSquare(PackedMove.x1(m), PackedMove.y1(m), side, EMPTY);
+	setSideToMove(side);
 	return true;
       }
     } else { // STEP (same as backwards step)
-      return move(new Move(m.x2, m.y2, m.x1, m.y1), side);
+      int back = PackedMove.step(PackedMove.x2(m), PackedMove.y2(m),
+				 PackedMove.x1(m), PackedMove.y1(m));
+      if (!move(back, side)) {
+	return false;
+      }
+      setSideToMove(side);
+      return true;
     }
   }
 
@@ -148,37 +540,41 @@ public class GameState {
    * otherwise false.
    **/
   protected boolean isValidMove(Move m, int side) {
-    int x = m.x1;
-    int y = m.y1;
+    return onBoard(m) && isValidMove(PackedMove.pack(m), side);
+  }
 
-    if (m.moveKind == Move.QUIT) {
+  /**
+   * isValidMove() determines whether the given packed move is valid for
+   * player 'side'.
+   * @param m is a move packed with PackedMove
+   * @param side is the GameState.BLACK or GameState.WHITE
+   * @return true if the move is valid for player 'side', otherwise false.
+   **/
+  protected boolean isValidMove(int m, int side) {
+    int kind = PackedMove.kind(m);
+    if (kind == Move.QUIT) {
       return false;
     }
-    if (m.moveKind == Move.STEP) { // cant step from empty square
-      if (gameBoard.squareContents(m.x2, m.y2) != side) {
+    // ADD moves until the side has all ten chips on the board, STEP moves after
+    if ((kind == Move.ADD) != ((side == BLACK ? blackCount : whiteCount) < 10)) {
+      return false;
+    }
+    long own = gameBoard.chips(side);
+    if (kind == Move.STEP) { // cant step from empty square
+      long source = Board.bit(PackedMove.x2(m), PackedMove.y2(m));
+      if ((own & source) == 0) {
 	return false;
       }
+      own &= ~source; // the chip leaves its old square first
     }
-    if (wrongGoal(x, y, side)) {
+    long target = Board.bit(PackedMove.x1(m), PackedMove.y1(m));
+    if ((target & Board.forbidden(side)) != 0) { // wrong goal or corner
       return false;
     }
-    if (gameBoard.squareContents(x, y) != EMPTY) { // cant move to occupied square
+    if ((target & gameBoard.occupied()) != 0) { // cant move to occupied square
       return false;
     }
-    if (m.moveKind == Move.STEP) {
-      gameBoard.set(m.x2, m.y2, EMPTY);
-    }
-    if (hasCluster(x, y, side)) {
-      if (m.moveKind == Move.STEP) {
-	gameBoard.set(m.x2, m.y2, side);
-      }
-      return false;
-    } else {
-      if (m.moveKind == Move.STEP) {
-	gameBoard.set(m.x2, m.y2, side);
-      }
-      return true;
-    }
+    return !formsCluster(target, own);
   }
   
   /**
@@ -189,22 +585,7 @@ public class GameState {
    * @return true if the side is in the wrong goal, or in the corner, and false otherwise
    **/
   protected boolean wrongGoal(int x, int y, int side) {
-    if (side == BLACK) {
-      if (x == 0) {
-	return true;
-      }
-      if (x == BOARDLENGTH - 1) {
-	return true;
-      }
-    } else if (side == WHITE) {
-      if (y == 0) {
-	return true;
-      }
-      if (y == BOARDLENGTH - 1) {
-	return true;
-      }
-    }
-    return false;
+    return (Board.bit(x, y) & Board.forbidden(side)) != 0;
   }
 
   /** 
@@ -215,20 +596,23 @@ public class GameState {
    * @return returns a boolean, true if there is a cluster of three at that point and false otehrwise
    **/
   protected boolean hasCluster(int x, int y, int side) {
-    SList adjacents = findAdjacents(x, y, side);
-    if (adjacents.length() >= 2) {
-      return true;
-    } else if (adjacents.length() == 1) {
-      int x1 = ((Coordinate) adjacents.nth(1)).x;
-      int y1 = ((Coordinate) adjacents.nth(1)).y;
+    return formsCluster(Board.bit(x, y), gameBoard.chips(side));
+  }
 
-      if (hasAdjacents(x1, y1, side)) {
-	return true;
-      } else {
-	return false;
-      }
-    } else {
+  /**
+   * formsCluster() checks if a chip placed on 'target' would touch two chips of 'own', or touch one chip of 'own' that already touches another
+   * @param target is the single-bit mask of the square to be checked
+   * @param own is the mask of the chips of the moving side, not including 'target'
+   * @return true if a chip on 'target' would form a cluster of three, and false otherwise
+   **/
+  protected static boolean formsCluster(long target, long own) {
+    long adjacents = Board.adjacent(target) & own;
+    if (adjacents == 0) {
       return false;
+    } else if ((adjacents & (adjacents - 1)) != 0) { // two or more
+      return true;
+    } else {
+      return (Board.adjacent(adjacents) & own) != 0;
     }
   }
 
@@ -270,7 +654,7 @@ public class GameState {
   /**
    * validMoves() generates a SList of valid moves for
    * the player 'side'. 
-   * special case: When generating stepmoves, there may be duplicates (not a problem, still a correct move, but you may have more than one of it)
+   * special case: When generating stepmoves, there may be duplicates (not a problem, still a correct move, but you may have more than one of it); generateStepMoves() lists each step move once
    * @param side is side for which the moves need to be generated (BLACK or WHITE)
    * @return a SList that contains Coordinate objects of
    * such valid moves, null if no valid moves are found.
@@ -282,30 +666,31 @@ public class GameState {
       isStep = true;
     }
     SList current = new SList();
+    long own = gameBoard.chips(side);
     if (isStep) {
-      for (int i = 0; i < BOARDLENGTH; i++) {
-	for (int j = 0; j < BOARDLENGTH; j++) {
-	  if (gameBoard.squareContents(i, j) == side) {
-	    current.insertFront(new Coordinate(i, j));
-	  }
-	}
+      for (long rest = own; rest != 0; rest &= rest - 1) {
+	int sq = Long.numberOfTrailingZeros(rest);
+	current.insertFront(new Coordinate(Board.squareX(sq), Board.squareY(sq)));
       }
     }
     SList moves = new SList();
-    for (int i = 0; i < BOARDLENGTH; i++) {
-      for (int j = 0; j < BOARDLENGTH; j++) {
-	Move m = new Move(i, j);
-	if (isValidMove(m, side)) {
-	  if (!isStep) {
-	    moves.insertFront(m);
-	  } else {
-	    SListNode currentNode = current.front();
-	    for (int k = 0; k < 10; k++) {
-	      Coordinate c = (Coordinate) currentNode.item;
-	      moves.insertFront(new Move(i, j, c.x, c.y));
-	      currentNode = currentNode.next;
-	    }
-	  }
+    long targets = gameBoard.empty() & ~Board.forbidden(side);
+    for (; targets != 0; targets &= targets - 1) {
+      long target = targets & -targets;
+      if (formsCluster(target, own)) {
+	continue;
+      }
+      int sq = Long.numberOfTrailingZeros(target);
+      int i = Board.squareX(sq);
+      int j = Board.squareY(sq);
+      if (!isStep) {
+	moves.insertFront(new Move(i, j));
+      } else {
+	SListNode currentNode = current.front();
+	for (int k = 0; k < 10; k++) {
+	  Coordinate c = (Coordinate) currentNode.item;
+	  moves.insertFront(new Move(i, j, c.x, c.y));
+	  currentNode = currentNode.next;
 	}
       }
     }
@@ -342,6 +727,120 @@ public class GameState {
     return moves;
   }
 
+  /**
+   * generateMoves() writes the valid moves of 'side', packed with PackedMove,
+   * into 'buffer' and returns how many there are.  Add moves come in the same
+   * order as from validMoves(); step moves come from generateStepMoves(), so
+   * unlike validMoves() no move is listed twice.  Nothing is allocated, so
+   * the search can reuse one buffer per ply.
+   * @param side is side for which the moves need to be generated (BLACK or WHITE)
+   * @param buffer receives the moves; MAXMOVES entries are always enough
+   * @return the number of moves written
+   **/
+  protected int generateMoves(int side, int[] buffer) {
+    if ((side == BLACK ? blackCount : whiteCount) == 10) {
+      return generateStepMoves(side, buffer);
+    }
+    int n = 0;
+    // validMoves() inserts at the front of its list, so go from the last square
+    for (long targets = legalAdds[colorIndex(side)]; targets != 0; ) {
+      int sq = 63 - Long.numberOfLeadingZeros(targets);
+      targets &= ~(1L << sq);
+      buffer[n++] = PackedMove.add(Board.squareX(sq), Board.squareY(sq));
+    }
+    return n;
+  }
+
+  /**
+   * generateStepMoves() writes every valid step move of 'side' into 'buffer'
+   * exactly once and returns how many there are.  A step to 'target' is valid
+   * if 'target' is empty, open to 'side' and forms no cluster once the chip
+   * has left its old square.  If it forms no cluster with every chip still on
+   * the board, any chip may step there; otherwise only chips within two
+   * squares of 'target' can break up the cluster by leaving, and only those
+   * are tried.  Moves are listed by target square, then by source square.
+   * @param side is side for which the moves need to be generated (BLACK or WHITE)
+   * @param buffer receives the moves; MAXMOVES entries are always enough
+   * @return the number of moves written
+   **/
+  protected int generateStepMoves(int side, int[] buffer) {
+    long own = gameBoard.chips(side);
+    int n = 0;
+    long targets = gameBoard.empty() & ~Board.forbidden(side);
+    for (; targets != 0; ) {
+      int to = 63 - Long.numberOfLeadingZeros(targets);
+      long target = 1L << to;
+      targets &= ~target;
+      int x = Board.squareX(to);
+      int y = Board.squareY(to);
+      long sources = own;
+      boolean open = (legalAdds[colorIndex(side)] & target) != 0;
+      if (!open) {
+	long near = Board.adjacent(target);
+	sources &= near | Board.adjacent(near);
+      }
+      for (; sources != 0; sources &= sources - 1) {
+	long source = sources & -sources;
+	if (open || !formsCluster(target, own & ~source)) {
+	  int from = Long.numberOfTrailingZeros(source);
+	  buffer[n++] = PackedMove.step(x, y, Board.squareX(from), Board.squareY(from));
+	}
+      }
+    }
+    return n;
+  }
+
+  /**
+   * connectionSignal() is a cheap static estimate of how much a move changes
+   * the networks on the board, used to order moves before searching them.
+   * It counts the chips of 'side' that a chip on (x1, y1) would see, plus two
+   * for every pair of enemy chips that see each other through (x1, y1) and
+   * would be cut apart.
+   * @param m is an ADD or STEP move packed with PackedMove, assumed to be valid
+   * @param side is the side making the move (BLACK or WHITE)
+   * @return a non-negative score, higher for moves that connect or block more
+   **/
+  protected int connectionSignal(int m, int side) {
+    int ignore = -1; // the square a stepping chip leaves
+    if (PackedMove.kind(m) == Move.STEP) {
+      ignore = Board.square(PackedMove.x2(m), PackedMove.y2(m));
+    }
+    int x = PackedMove.x1(m);
+    int y = PackedMove.y1(m);
+    int signal = 0;
+    for (int dir = 0; dir < 4; dir++) {
+      int ahead = firstChip(x, y, dir, ignore);
+      int behind = firstChip(x, y, dir + 4, ignore);
+      if (ahead == side) {
+	signal++;
+      }
+      if (behind == side) {
+	signal++;
+      }
+      if (ahead == opponent(side) && behind == ahead) {
+	signal += 2;
+      }
+    }
+    return signal;
+  }
+
+  /**
+   * firstChip() looks from (x, y) in direction 'dir' and returns the color of
+   * the first chip it meets, not counting (x, y) itself or the square 'ignore'.
+   * @return BLACK, WHITE, or EMPTY if the walk leaves the board
+   **/
+  protected int firstChip(int x, int y, int dir, int ignore) {
+    long chips = gameBoard.occupied();
+    if (ignore >= 0) {
+      chips &= ~(1L << ignore);
+    }
+    int sq = Board.firstOnRay(Board.square(x, y), dir, chips);
+    if (sq < 0) {
+      return EMPTY;
+    }
+    return gameBoard.squareContents(Board.squareX(sq), Board.squareY(sq));
+  }
+
   /**
    * networkNeighbors() returns an SList of NetworkNode Objects that are in a
    * network with the given Coordinate. Checks what color is at the parent. If
@@ -353,34 +852,17 @@ public class GameState {
   protected SList networkNeighbors(NetworkNode parent) {
     SList sl = new SList();
     Coordinate c = parent.coord;
-    int xOfC = c.x;
-    int yOfC = c.y;
+    int from = Board.square(c.x, c.y);
     int side = gameBoard.squareContents(c);
-    int oppSide = opponent(side);
+    long own = gameBoard.chips(side);
+    long chips = gameBoard.occupied();
 
     // start going directly north, then go counter-clockwise
-    int[] dx = { 0, -1, -1, -1, 0, 1, 1, 1 };
-    int[] dy = { -1, -1, 0, 1, 1, 1, 0, -1 };
-
     for (int dir = 0; dir < 8; dir++) {
-      int x = xOfC, y = yOfC;
-
-      x += dx[dir];
-      y += dy[dir];
-
-      while (x < BOARDLENGTH && x >= 0 && y < BOARDLENGTH && y >= 0
-	     && gameBoard.squareContents(x, y) != oppSide) {
-
-	if (gameBoard.squareContents(x, y) == side) {
-	  NetworkNode newN = new NetworkNode(new Coordinate(x, y),
-					     parent);
-	  sl.insertEnd(newN);
-	  break;
-	}
-
-	x += dx[dir];
-	y += dy[dir];
-
+      int sq = Board.firstOnRay(from, dir, chips);
+      if (sq >= 0 && (own & (1L << sq)) != 0) {
+	sl.insertEnd(new NetworkNode(new Coordinate(Board.squareX(sq), Board.squareY(sq)),
+				     parent));
       }
     }
     return sl;
@@ -389,6 +871,10 @@ public class GameState {
   /**
    * hasValidNetwork() determines if Board has a valid network. if side !=
    * MachinePlayer.BLACK || MachinePlayer.WHITE return false.
+   * Each partial network is just its last chip, the line it came in along
+   * and a mask of the chips on it, and is extended along the network graph,
+   * so the search allocates nothing.  It gives up at once if the side has no
+   * chip in one of its goal areas or fewer than six chips.
    * 
    * @param side
    *            is MachinePlayer.WHITE || MachinePlayer.BLACK
@@ -396,6 +882,148 @@ public class GameState {
    *         otherwise.
    **/
   public boolean hasValidNetwork(int side) {
+    networkTests++;
+    long own = gameBoard.chips(side);
+    long start = own & Board.startGoal(side);
+    long end = own & Board.endGoal(side);
+    if (start == 0 || end == 0 || Long.bitCount(own) < 6) {
+      return false;
+    }
+    for (; start != 0; start &= start - 1) {
+      long first = start & -start;
+      if (networkFrom(Long.numberOfTrailingZeros(first), -1, first, 1, end)) {
+	return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * winningMove() looks for a move by 'side' that completes a network for
+   * 'side' and not for its opponent, trying each with applyUnchecked() and
+   * undo().  A network needs six chips and a chip in both goal areas, and a
+   * move brings at most one chip into a goal area, so most positions are
+   * ruled out without trying a move.  A move is only tried if its chip
+   * could be on the new network, or if it steps away from a chip whose
+   * absence alone completes one.  It assumes neither side has a network yet.
+   * @param side is the side to move (BLACK or WHITE)
+   * @param buffer receives the moves of 'side'; MAXMOVES entries are always enough
+   * @return the packed winning move, or PackedMove.NONE if there is none
+   **/
+  protected int winningMove(int side, int[] buffer) {
+    long own = gameBoard.chips(side);
+    int count = side == BLACK ? blackCount : whiteCount;
+    if (Long.bitCount(own) + (count < 10 ? 1 : 0) < 6) {
+      return PackedMove.NONE;
+    }
+    long start = own & Board.startGoal(side);
+    long end = own & Board.endGoal(side);
+    long targets;  // squares a winning move can land on
+    if (start != 0 && end != 0) {
+      targets = -1L;
+    } else if (start != 0) {
+      targets = Board.endGoal(side);
+    } else if (end != 0) {
+      targets = Board.startGoal(side);
+    } else {
+      return PackedMove.NONE;
+    }
+    int enemy = opponent(side);
+    long goals = Board.goalArea(side);
+    long occupied = gameBoard.occupied();
+    long opening = 0;  // chips whose leaving alone completes a network
+    if (count == 10) {
+      for (long rest = own; rest != 0; rest &= rest - 1) {
+	int sq = Long.numberOfTrailingZeros(rest);
+	setSquare(Board.squareX(sq), Board.squareY(sq), side, EMPTY);
+	if (hasValidNetwork(side)) {
+	  opening |= 1L << sq;
+	}
+	setSquare(Board.squareX(sq), Board.squareY(sq), EMPTY, side);
+      }
+    }
+    int n = generateMoves(side, buffer);
+    for (int i = 0; i < n; i++) {
+      int m = buffer[i];
+      int sq = Board.square(PackedMove.x1(m), PackedMove.y1(m));
+      long from = 0;
+      if (PackedMove.kind(m) == Move.STEP) {
+	from = Board.bit(PackedMove.x2(m), PackedMove.y2(m));
+      }
+      // unless the network was there once the chip left, the chip is on
+      // it, so it must bring what a goal area lacks and see chips of its
+      // own along two lines, or one if it ends the network in a goal area
+      if ((from & opening) == 0
+	  && (((1L << sq) & targets) == 0
+	      || ownLines(sq, own & ~from, occupied & ~from)
+	      < (((1L << sq) & goals) != 0 ? 1 : 2))) {
+	continue;
+      }
+      winningTries++;
+      applyUnchecked(m, side);
+      boolean wins = hasValidNetwork(side) && !hasValidNetwork(enemy);
+      undo();
+      if (wins) {
+	return m;
+      }
+    }
+    return PackedMove.NONE;
+  }
+
+  //returns the number of lines (direction & 3) along which square 'sq' sees a chip of 'own'
+  private static int ownLines(int sq, long own, long occupied) {
+    int lines = 0;
+    for (int dir = 0; dir < 8; dir++) {
+      int seen = Board.firstOnRay(sq, dir, occupied);
+      if (seen >= 0 && ((own >>> seen) & 1) != 0) {
+	lines |= 1 << (dir & 3);
+      }
+    }
+    return Integer.bitCount(lines);
+  }
+
+  /**
+   * networkFrom() extends a partial network of chips of one side through
+   * every chip the last one is linked to in the network graph, depth first, and reports whether one of
+   * the extensions reaches the ending goal area with at least six chips.
+   * The path never visits a chip twice, turns at every chip, and ends as
+   * soon as it reaches an edge square other than the one it started from.
+   * @param sq is the last chip of the path
+   * @param line is the line the path came in along (direction & 3), or -1 at the start
+   * @param visited is the mask of the chips on the path
+   * @param size is the number of chips on the path
+   * @param end is the mask of the chips of the side in its ending goal area
+   * @return true if the path can be completed into a network
+   **/
+  private boolean networkFrom(int sq, int line, long visited, int size, long end) {
+    for (int dirs = linkDirs[sq]; dirs != 0; dirs &= dirs - 1) {
+      int dir = Integer.numberOfTrailingZeros(dirs);
+      int next = links[8 * sq + dir];
+      long b = 1L << next;
+      if ((dir & 3) == line || (b & visited) != 0) {
+	continue;
+      }
+      if ((b & end) != 0) {
+	if (size + 1 >= 6) {
+	  return true;
+	}
+      } else if ((b & Board.INTERIOR) != 0
+		 && networkFrom(next, dir & 3, visited | b, size + 1, end)) {
+	return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * hasValidNetworkByPaths() is the original network search, which builds
+   * every path as a chain of NetworkNodes.  It gives the same answers as
+   * hasValidNetwork(), much more slowly, and is kept to check it against.
+   * @param side is BLACK or WHITE
+   * @return true if player side has winning network in this board, and
+   *         false otherwise.
+   **/
+  protected boolean hasValidNetworkByPaths(int side) {
     MachinePlayer.debugPrint("hasValidNetwork start:");
     SList fringe = startingNodes(side); // depth first tree search
     MachinePlayer.debugPrint("fringe: "+fringe);
@@ -463,12 +1091,111 @@ public class GameState {
     }
   }
 
+  /**
+   * networkFeatures() computes the same features as features(), in time
+   * polynomial in the number of chips.  Instead of following every path, it
+   * extends all paths one chip at a time, and in each layer (paths of the
+   * same length) keeps a single path for each (last chip, line it came in
+   * along) pair: the first one to get there.  The same pair may turn up
+   * again in a later layer, at the end of a longer path.  A chip is only
+   * added to a path if it is not already on that path.  So MAXLENGTH is the
+   * length of the longest path found this way, which may miss some longer
+   * paths.  DX and DY are measured over the chips
+   * expanded.  EXPANDED is the number of different chips on the paths.  The
+   * rules for paths are the same as in hasValidNetwork().
+   * @param side is side (BLACK of WHITE)
+   * @param starting is true to start from the chips in the start (upper or left) goal area and false to start from the end (bottom or right) goal area
+   * @param budget is the most (chip, line) states expanded; the features found so far are returned once it runs out
+   * @return an array of doubles with corresponding values of certain
+   * characteristics, or null if 'starting' and a network was found
+   **/
+  protected double[] networkFeatures(int side, boolean starting, int budget) {
+    return linkFeatures(side, starting, budget, new double[4]);
+  }
+
+  /**
+   * linkFeatures() is networkFeatures() writing the features into 'ret'.
+   * @return 'ret', or null if 'starting' and a network was found
+   **/
+  protected double[] linkFeatures(int side, boolean starting, int budget, double[] ret) {
+    ret[MAXLENGTH] = 0;
+    ret[DX] = BOARDLENGTH;
+    ret[DY] = BOARDLENGTH;
+    double gx, gy;
+    if(side == WHITE) {
+      gx = starting ? BOARDLENGTH-1 : 0;
+      gy = ((double) BOARDLENGTH-1.0)/2;
+    } else {
+      gy = starting ? BOARDLENGTH-1 : 0;
+      gx = ((double) BOARDLENGTH-1.0)/2;
+    }
+    long own = gameBoard.chips(side);
+    long end = own & Board.endGoal(side);
+    long roots = own & (starting ? Board.startGoal(side) : end);
+    int n = 0;
+    for (; roots != 0; roots &= roots - 1) { // line 4 means "no line yet"
+      layerStates[n] = Long.numberOfTrailingZeros(roots) << 3 | 4;
+      layerVisited[n] = roots & -roots;
+      n++;
+    }
+    long reached = 0;
+    for (int size = 1; n > 0; size++) {
+      if (++stamp == 0) { // the stamps wrapped around, forget them all
+	Arrays.fill(stateStamps, 0);
+	stamp = 1;
+      }
+      int m = 0;
+      for (int i = 0; i < n && budget > 0; i++, budget--) {
+	int sq = layerStates[i] >>> 3;
+	int line = layerStates[i] & 7;
+	long visited = layerVisited[i];
+	reached |= visited;
+	ret[MAXLENGTH] = size;
+	ret[DX] = Math.min(ret[DX], Math.abs(gx - Board.squareX(sq)));
+	ret[DY] = Math.min(ret[DY], Math.abs(gy - Board.squareY(sq)));
+	for (int dirs = linkDirs[sq]; dirs != 0; dirs &= dirs - 1) {
+	  int dir = Integer.numberOfTrailingZeros(dirs);
+	  int next = links[8 * sq + dir];
+	  int nextLine = dir & 3;
+	  long b = 1L << next;
+	  if (nextLine == line || (b & visited) != 0) {
+	    continue;
+	  }
+	  if (starting && size + 1 >= 6 && (b & end) != 0) {
+	    return null;
+	  }
+	  int state = next << 2 | nextLine;
+	  if ((b & Board.INTERIOR) != 0 && stateStamps[state] != stamp) {
+	    stateStamps[state] = stamp;
+	    nextStates[m] = next << 3 | nextLine;
+	    nextVisited[m] = visited | b;
+	    m++;
+	  }
+	}
+      }
+      if (budget <= 0) {
+	break;
+      }
+      int[] states = layerStates;
+      layerStates = nextStates;
+      nextStates = states;
+      long[] masks = layerVisited;
+      layerVisited = nextVisited;
+      nextVisited = masks;
+      n = m;
+    }
+    ret[EXPANDED] = Long.bitCount(reached);
+    ret[MAXLENGTH] = ret[MAXLENGTH] * ret[MAXLENGTH];
+    return ret;
+  }
+
   /** 
    * features() returns an int array of length 4 with features for the eval function or null if validNetwork. Calculates numbers that evaluation uses to grade each board state, using certain features of the board like:
    * max network length squared
    * number of network nodes expanded in search
    * x distance to middle of goal (the closer the better)
    * y distance to middle of goal (closer is better)
+   * It follows every path, which takes time exponential in the number of chips, so evaluation() uses networkFeatures() instead.
    * @param side is side (BLACK of WHITE)
    * @param fringe is the SList of NetworkNode objects on the edge
    * @param starting is true if the fringe is in the start (upper or left side) and false if the fringe is in end (bottom or right side)
@@ -539,25 +1266,11 @@ public class GameState {
    * @return SList of NetworkNodes
    **/
   protected SList startingNodes(int side) {
-    int[] x = new int[BOARDLENGTH];
-    int[] y = new int[BOARDLENGTH];
     SList ret = new SList();
-    if (side == BLACK) {
-      for (int i = 0; i < BOARDLENGTH; i++) {
-	x[i] = i;
-	y[i] = 0;
-      }
-    } else {// side==WHITE
-      for (int i = 0; i < BOARDLENGTH; i++) {
-	x[i] = 0;
-	y[i] = i;
-      }
-    }
-    for (int i = 0; i < BOARDLENGTH; i++) {
-      if (gameBoard.squareContents(x[i], y[i]) == side) {
-	NetworkNode temp = new NetworkNode(new Coordinate(x[i], y[i]));
-	ret.insertFront(temp);
-      }
+    long goal = gameBoard.chips(side) & Board.startGoal(side);
+    for (; goal != 0; goal &= goal - 1) {
+      int sq = Long.numberOfTrailingZeros(goal);
+      ret.insertFront(new NetworkNode(new Coordinate(Board.squareX(sq), Board.squareY(sq))));
     }
     return ret;
   }
@@ -568,25 +1281,11 @@ public class GameState {
    * @return SList of NetworkNodes
    **/
   protected SList endingNodes(int side) {
-    int[] x = new int[BOARDLENGTH];
-    int[] y = new int[BOARDLENGTH];
     SList ret = new SList();
-    if(side == BLACK) {
-      for(int i=0;i<BOARDLENGTH;i++) {
-	x[i]=i;
-	y[i]=BOARDLENGTH-1;
-      }
-    } else {//side==WHITE
-      for(int i=0;i<BOARDLENGTH;i++) {
-	x[i]=BOARDLENGTH-1;
-	y[i]=i;
-      }
-    }
-    for(int i=0;i<BOARDLENGTH;i++) {
-      if(gameBoard.squareContents(x[i],y[i])==side) {
-	NetworkNode temp = new NetworkNode(new Coordinate(x[i],y[i]));
-	ret.insertFront(temp);
-      }
+    long goal = gameBoard.chips(side) & Board.endGoal(side);
+    for (; goal != 0; goal &= goal - 1) {
+      int sq = Long.numberOfTrailingZeros(goal);
+      ret.insertFront(new NetworkNode(new Coordinate(Board.squareX(sq), Board.squareY(sq))));
     }
     return ret;
   }
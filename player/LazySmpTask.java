@@ -0,0 +1,26 @@
+/* LazySmpTask.java */
+
+package player;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ *  A fork/join task that runs one LAZYSMP helper search for MachinePlayer
+ *  until the helper is stopped or runs out of time.
+ */
+class LazySmpTask extends RecursiveAction {
+
+  private static final long serialVersionUID = 1L;
+
+  private MachinePlayer helper;
+  private int firstHorizon;
+
+  LazySmpTask(MachinePlayer helper, int firstHorizon) {
+    this.helper = helper;
+    this.firstHorizon = firstHorizon;
+  }
+
+  protected void compute() {
+    helper.helperSearch(firstHorizon);
+  }
+}
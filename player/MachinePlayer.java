@@ -2,6 +2,11 @@
 
 package player;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  *  An implementation of an automatic Network player.  Keeps track of moves
  *  made by both players.  Can select a move for itself.
@@ -11,9 +16,54 @@ public class MachinePlayer extends Player {
   protected int color;  // MachinePlayer's color
   protected int searchDepth;  // how deep it searches
   protected GameState currentState;  // current gameState
+  protected TranspositionTable table;  // search results shared across moves
+  protected EvaluationCache evalCache;  // leaf scores and network tests shared across moves
+  protected MoveOrdering ordering;  // killer moves and history scores
+  protected long timeLimit;  // milliseconds per move, 0 for a fixed-depth search
+  protected int horizon;  // depth limit of the search in progress
+  protected long deadline;  // time at which the search in progress must stop
+  protected boolean outOfTime;  // true once the search in progress passed the deadline
+  protected int nodeCount;  // nodes visited, used to check the clock now and then
+  protected int searchMode;  // ALPHABETA or PVS
+  protected int rootMove;  // packed best root move found so far by the search
+  protected int threads;  // number of helper threads for the parallel modes
+  protected ForkJoinPool pool;  // runs the helpers, created on first use
+  protected MachinePlayer[] helpers;  // one searcher per helper thread, sharing 'table'
+  protected volatile boolean stopped;  // set to make a LAZYSMP helper stop searching
+  protected AtomicLong rootAlpha;  // best root score so far in splitRoot(), as double bits
+  protected int rootIndex;  // index of rootMove among the ordered root moves
+  protected int[][] moveBuffers = new int[MoveOrdering.MAXPLY][];  // move list of each ply
+  protected boolean pondering;  // true to search on the opponent's time
+  protected MachinePlayer ponderer;  // searches the position after our move, sharing 'table'
+  protected ForkJoinTask<?> ponderTask;  // the running ponder search, or null
+  protected OpeningBook book;  // consulted by chooseMove() before searching, or null
+  protected ProofNumberSearch solver = new ProofNumberSearch();  // looks for forced networks
+  protected int solverPlies = SOLVERPLIES;  // plies in which solver must win, 0 for no solver
+  protected long solverBudget = SOLVERBUDGET;  // moves the solver may apply per chooseMove()
+  protected int quiesceDepth;  // plies quiesce() may add to a leaf, 0 (the default) for none
+  protected int quiesceThreats = QUIESCETHREATS;  // of which the first ones may make threats
+  protected int[] threatBuffer = new int[GameState.MAXMOVES];  // moves tried by winningMove()
+  protected SearchStats stats = new SearchStats();  // counts of the last chooseMove() on this thread
 
   static final int DEFAULTDEPTH = 1; // how deep the first constructor searches
   static final double DECAY = .1; // how much wins or losses are decremented by
+  static final int DEFAULTTABLESIZE = 16; // transposition table size in megabytes
+  static final int DEFAULTEVALCACHESIZE = 4; // evaluation cache size in megabytes
+  static final int CLOCKINTERVAL = 256; // nodes between two looks at the clock (power of two)
+  static final double ASPIRATION = 5; // half-width of the PVS aspiration window
+  static final double NULLWINDOW = .01; // width of a PVS null window, below any score step
+  static final int HELPERNOISE = 16; // move ordering noise of the odd LAZYSMP helpers
+  static final int SOLVERPLIES = 5; // plies in which the solver looks for a forced network
+  static final long SOLVERBUDGET = 100000; // moves the solver may apply per chooseMove()
+  static final int SOLVERSHARE = 4; // with a time limit, the solver may use 1/SOLVERSHARE of it
+  static final int QUIESCEDEPTH = 4; // suggested depth cap for setQuiescence()
+  static final int QUIESCETHREATS = 2; // plies beyond the horizon in which threats are made
+
+  // search modes
+  static final int ALPHABETA = 0; // maxval/minval, the default
+  static final int PVS = 1; // negamax principal variation search with aspiration windows
+  static final int ROOTSPLIT = 2; // maxval/minval with the root moves split across threads
+  static final int LAZYSMP = 3; // maxval/minval run by several threads sharing one table
 
 // set DEBUG to true if you want to display debugPrint statements,
 // false to not print anything
@@ -29,6 +79,10 @@ public class MachinePlayer extends Player {
     }
     searchDepth = DEFAULTDEPTH;
     currentState = new GameState();
+    table = new TranspositionTable(DEFAULTTABLESIZE);
+    evalCache = new EvaluationCache(DEFAULTEVALCACHESIZE);
+    ordering = new MoveOrdering();
+    threads = 1;
   }
 
   // Creates a machine player with the given color and search depth.  Color is
@@ -38,16 +92,327 @@ public class MachinePlayer extends Player {
     this.searchDepth = searchDepth;
   }
 
+  // Creates a machine player with the given color, maximum search depth and
+  // time limit per move in milliseconds.  Color is either 0 (black) or 1
+  // (white).  (White has the first move.)
+  public MachinePlayer(int color, int searchDepth, long timeLimit) {
+    this(color, searchDepth);
+    this.timeLimit = timeLimit;
+  }
+
+  // Creates a helper that searches positions for 'parent' on another thread.
+  // It plays the same color, shares the transposition table and evaluation
+  // cache of 'parent', and has its own game copy and move ordering.
+  protected MachinePlayer(MachinePlayer parent) {
+    color = parent.color;
+    searchDepth = parent.searchDepth;
+    searchMode = parent.searchMode;
+    quiesceDepth = parent.quiesceDepth;
+    quiesceThreats = parent.quiesceThreats;
+    currentState = new GameState(parent.currentState);
+    table = parent.table;
+    evalCache = parent.evalCache;
+    ordering = new MoveOrdering();
+    threads = 1;
+  }
+
+  /**
+   * setTimeLimit() sets how long chooseMove() may think.  With a time limit,
+   * chooseMove() deepens its search one ply at a time up to searchDepth and
+   * plays the best move of the last search that finished in time.
+   * @param millis is the time limit per move in milliseconds, 0 for none
+   **/
+  public void setTimeLimit(long millis) {
+    timeLimit = millis;
+  }
+
+  /**
+   * setSearchMode() selects the search algorithm used by chooseMove(), one
+   * of four: ALPHABETA, PVS, ROOTSPLIT and LAZYSMP.  All of them use the
+   * transposition table, move ordering and time limit.  PVS keeps scores
+   * from the side to move's point of view and the others from this
+   * player's, so switching between PVS and another mode clears the
+   * transposition table.
+   * @param mode is ALPHABETA (maxval/minval), PVS (principal variation search),
+   * ROOTSPLIT (maxval/minval with the root moves searched in parallel) or
+   * LAZYSMP (maxval/minval run by several threads sharing one table)
+   **/
+  public void setSearchMode(int mode) {
+    stopPondering();
+    if ((mode == PVS) != (searchMode == PVS)) {
+      table.clear();
+    }
+    searchMode = mode;
+    helpers = null;
+  }
+
+  /**
+   * setThreads() sets the number of threads used by the ROOTSPLIT and
+   * LAZYSMP search modes.
+   * @param n is the number of threads, at least 1
+   **/
+  public void setThreads(int n) {
+    stopPondering();
+    threads = Math.max(1, n);
+    if (pool != null) {
+      pool.shutdown();
+    }
+    pool = null;
+    helpers = null;
+  }
+
+  /**
+   * setTableSize() replaces the transposition table with an empty one that
+   * uses at most the given number of megabytes.
+   * @param megabytes is the memory budget of the table
+   **/
+  public void setTableSize(int megabytes) {
+    stopPondering();
+    table = new TranspositionTable(megabytes);
+    helpers = null;
+  }
+
+  /**
+   * setEvalCacheSize() replaces the evaluation cache with an empty one that
+   * uses at most the given number of megabytes.
+   * @param megabytes is the memory budget of the cache
+   **/
+  public void setEvalCacheSize(int megabytes) {
+    stopPondering();
+    evalCache = new EvaluationCache(megabytes);
+    helpers = null;
+  }
+
+  /**
+   * evalCacheHitRate() returns the fraction of the leaf evaluations and
+   * network tests of the last chooseMove(), helper threads included, that
+   * were answered by the evaluation cache.
+   * @return a number between 0 and 1
+   **/
+  public double evalCacheHitRate() {
+    return stats.cacheHitRate();
+  }
+
+  /**
+   * setPondering() turns pondering on or off.  When it is on, chooseMove()
+   * leaves a helper thread searching the position after its move, from the
+   * opponent's side, until the opponent's move arrives.  The helper keeps
+   * its results in the shared transposition table, so the next chooseMove()
+   * starts with warm tables.
+   * @param on is true to ponder, false to stop pondering
+   **/
+  public void setPondering(boolean on) {
+    if (!on) {
+      stopPondering();
+    }
+    pondering = on;
+  }
+
   /**
    * chooseMove() returns a new move by 'this' player. Internally records the move (updates the internal game board) as a move by 'this' player
    * @return the chosen Move
    **/
   public Move chooseMove() {
-    Move nextMove = minimax();
+    stopPondering();
+    stats = new SearchStats();
+    // the book and the solver are timed against the limit as well
+    if (timeLimit > 0) {
+      deadline = System.currentTimeMillis() + timeLimit;
+    } else {
+      deadline = Long.MAX_VALUE;
+    }
+    long networkTests = currentState.networkTests;
+    long start = System.nanoTime();
+    Move nextMove = bookMove();
+    long now = System.nanoTime();
+    stats.bookNanos = now - start;
+    if (nextMove == null) {
+      start = now;
+      nextMove = solvedMove();
+      now = System.nanoTime();
+      stats.solverNanos = now - start;
+    }
+    if (nextMove != null) {
+      debugPrint("book or solved move: " + nextMove);
+    } else {
+      start = now;
+      if (timeLimit > 0 || searchMode != ALPHABETA) {
+	nextMove = iterativeDeepening();
+      } else {
+	nextMove = minimax();
+      }
+      stats.searchNanos = System.nanoTime() - start;
+    }
+    stats.networkTests += currentState.networkTests - networkTests;
+    if (DEBUG) {
+      debugPrint("search stats: " + stats);  // building the String is not free
+    }
     currentState.move(nextMove, color);
+    if (pondering) {
+      startPondering();
+    }
     return nextMove;
   }
 
+  /**
+   * setOpeningBook() gives the player an opening book to consult before
+   * every search.
+   * @param book is an OpeningBook, or null for none
+   **/
+  public void setOpeningBook(OpeningBook book) {
+    this.book = book;
+  }
+
+  /**
+   * bookMove() looks up the current game in the opening book.  A stored
+   * move that is not legal here (keys can collide) is ignored.
+   * @return the book move for 'color', or null if there is none
+   **/
+  protected Move bookMove() {
+    if (book == null) {
+      return null;
+    }
+    int m = book.move(currentState.hashKey());
+    if (m == PackedMove.NONE || !currentState.isValidMove(m, color)) {
+      return null;
+    }
+    return PackedMove.unpack(m);
+  }
+
+  /**
+   * setSolver() sets how chooseMove() looks for a forced network before
+   * searching.
+   * @param plies is the number of plies, counting both sides, in which a
+   * network must be forced, 0 to turn the solver off
+   * @param budget is the most moves the solver may apply per chooseMove()
+   **/
+  public void setSolver(int plies, long budget) {
+    solverPlies = plies;
+    solverBudget = budget;
+  }
+
+  /**
+   * setQuiescence() sets how many plies quiesce() may search beyond the
+   * horizon; quiescence is off until it is called.  Looking for moves that
+   * make threats is what costs the most, so that is only done in the first
+   * few of them; blocking goes on up to the depth cap.  QUIESCEDEPTH and
+   * QUIESCETHREATS are good values to start from.
+   * @param plies is the depth cap of quiescence, 0 to evaluate leaves as they are
+   * @param threatPlies is the number of plies in which threats are made
+   **/
+  public void setQuiescence(int plies, int threatPlies) {
+    quiesceDepth = plies;
+    quiesceThreats = threatPlies;
+    helpers = null;
+  }
+
+  /**
+   * quiescenceNodes() returns the number of quiesce() calls made by the
+   * last search, including the stand-pat returns counted by standPatCount().
+   * @return the number of quiescence nodes
+   **/
+  public long quiescenceNodes() {
+    return stats.quiesceNodes;
+  }
+
+  //returns the number of quiescence nodes of the last search that stood pat
+  public long standPatCount() {
+    return stats.standPats;
+  }
+
+  /**
+   * searchStats() returns the statistics of the last chooseMove(), helper
+   * threads included: the move it chose came with these.
+   * @return the SearchStats of the last move
+   **/
+  public SearchStats searchStats() {
+    return stats;
+  }
+
+  /**
+   * solvedMove() runs the proof-number solver on the current game.  With a
+   * time limit, it stops at the deadline or after 1/SOLVERSHARE of the
+   * limit, whichever comes first, so that the search keeps most of the time.
+   * @return the first move of a network the solver proved 'color' can
+   * force, or null if it proved none within its budget
+   **/
+  protected Move solvedMove() {
+    if (solverPlies <= 0 || evalCache.hasNetwork(currentState, stats)) {
+      return null;
+    }
+    long solverDeadline = deadline;
+    if (timeLimit > 0) {
+      solverDeadline = Math.min(deadline, System.currentTimeMillis() + timeLimit / SOLVERSHARE);
+    }
+    int m = solver.solve(currentState, color, solverPlies, solverBudget, solverDeadline);
+    stats.solverMoves += solver.visited;
+    if (m == PackedMove.NONE) {
+      return null;
+    }
+    return PackedMove.unpack(m);
+  }
+
+  /**
+   * startPondering() starts a helper searching the current game, in which
+   * the opponent is to move, on the opponent's time.  Nothing is started if
+   * the game is already over.
+   **/
+  protected void startPondering() {
+    if (evalCache.hasNetwork(currentState, stats)) {
+      return;
+    }
+    if (pool == null) {
+      pool = new ForkJoinPool(threads);
+    }
+    if (ponderer == null || ponderer.table != table || ponderer.evalCache != evalCache) {
+      ponderer = new MachinePlayer(this);
+    }
+    ponderer.searchMode = searchMode;
+    ponderer.searchDepth = searchDepth;
+    ponderer.quiesceDepth = quiesceDepth;
+    ponderer.quiesceThreats = quiesceThreats;
+    ponderer.currentState = new GameState(currentState);
+    ponderer.ordering.newSearch();
+    ponderer.deadline = Long.MAX_VALUE;
+    ponderer.outOfTime = false;
+    ponderer.stopped = false;
+    ponderTask = pool.submit(new PonderTask(ponderer));
+  }
+
+  /**
+   * stopPondering() tells the ponder search, if one is running, to stop,
+   * and waits until it has, so that the game and the tables can be changed
+   * safely.
+   **/
+  protected void stopPondering() {
+    if (ponderTask != null) {
+      ponderer.stopped = true;
+      ponderTask.join();
+      ponderTask = null;
+    }
+  }
+
+  /**
+   * ponderSearch() is run by the ponder helper: an iterative deepening
+   * search of the opponent's moves from horizon 1 up to one ply beyond
+   * searchDepth, until it is stopped.  It searches the way chooseMove()
+   * will (pvs() in PVS mode, minval() otherwise), so that its results in
+   * the shared transposition table are seen from the right side.
+   **/
+  protected void ponderSearch() {
+    int opponent = GameState.opponent(color);
+    for (horizon = 1; horizon <= searchDepth + 1; horizon++) {
+      if (searchMode == PVS) {
+	pvs(0, GameState.EVALMIN-1, GameState.EVALMAX+1, opponent);
+      } else {
+	minval(0, GameState.EVALMIN-1, GameState.EVALMAX+1);
+      }
+      if (outOfTime) {
+	return;
+      }
+    }
+  }
+
   /**
    *  minimax() returns the best move as determined by minimax
    *  @param currentState is the state before the machine player takes
@@ -56,70 +421,212 @@ public class MachinePlayer extends Player {
    **/
   protected Move minimax() {
     debugPrint("minimax start:");
-    Best myBest = maxval(0, GameState.EVALMIN-1, GameState.EVALMAX+1); 
+    Best myBest = fixedDepthSearch();
     debugPrint("minimax end: " + myBest.move); 
     return myBest.move;
   }
 
   /**
-   * maxval() evaluates the current games state and returns a Best object, holding a score and a move. 
+   * fixedDepthSearch() runs one alphaBeta() search of the current game to
+   * searchDepth, with no time limit.
+   * @return a Best object holding the best move and its score for 'color'
+   **/
+  protected Best fixedDepthSearch() {
+    table.newSearch();
+    ordering.newSearch();
+    horizon = searchDepth;
+    deadline = Long.MAX_VALUE;
+    outOfTime = false;
+    Best myBest = alphaBeta();
+    stats.depth = horizon + 1;
+    return myBest;
+  }
+
+  /**
+   * iterativeDeepening() searches one ply, then two, and so on up to
+   * searchDepth + 1 plies, until the deadline set by chooseMove() passes or
+   * a forced win or loss is found, so it only has the time the book and the
+   * solver left.  The first iteration always runs to completion.
+   * PVS searches always go through here, since their aspiration windows are
+   * centred on the score of the previous iteration.
+   * @return the best move of the deepest search that finished in time
+   **/
+  protected Move iterativeDeepening() {
+    table.newSearch();
+    ordering.newSearch();
+    outOfTime = false;
+    ForkJoinTask<?>[] running = null;
+    if (searchMode == ROOTSPLIT) {
+      prepareHelpers();
+    } else if (searchMode == LAZYSMP) {
+      prepareHelpers();
+      running = startLazyHelpers();
+    }
+    Move bestMove = null;
+    double score = 0;
+    for (horizon = 0; horizon <= searchDepth; horizon++) {
+      Best myBest;
+      if (searchMode == PVS) {
+	myBest = aspiration(score);
+      } else if (searchMode == ROOTSPLIT) {
+	myBest = splitRoot();
+      } else {
+	myBest = alphaBeta();
+      }
+      if (outOfTime) {
+	break;
+      }
+      bestMove = myBest.move;
+      score = myBest.score;
+      stats.depth = horizon + 1;
+      debugPrint("iteration " + horizon + " done: " + bestMove + " " + myBest.score);
+      if (Math.abs(myBest.score) > GameState.EVALMAX - 1) {
+	break;  // a network is forced one way or the other
+      }
+    }
+    if (running != null) {
+      stopLazyHelpers(running);
+    }
+    if (searchMode == ROOTSPLIT || searchMode == LAZYSMP) {
+      collectHelperStats();
+    }
+    return bestMove;
+  }
+
+  /**
+   * timeUp() checks the clock every CLOCKINTERVAL nodes and reports whether
+   * the search in progress must stop.  The one-ply search never stops, so
+   * that there is always a move to play.  A LAZYSMP helper also stops when
+   * told to.
+   * @return true if the deadline has passed
+   **/
+  protected boolean timeUp() {
+    if (!outOfTime && horizon > 0 && (++nodeCount & (CLOCKINTERVAL - 1)) == 0
+	&& (stopped || System.currentTimeMillis() >= deadline)) {
+      outOfTime = true;
+    }
+    return outOfTime;
+  }
+
+  /**
+   * moveBuffer() returns the array that holds the moves of the node at depth
+   * 'ply', so that the search allocates no move lists of its own.
+   * @param ply is the depth of a node in the search tree
+   * @return an array of GameState.MAXMOVES ints
+   **/
+  protected int[] moveBuffer(int ply) {
+    if (ply >= moveBuffers.length) {
+      int[][] longer = new int[2 * ply][];
+      System.arraycopy(moveBuffers, 0, longer, 0, moveBuffers.length);
+      moveBuffers = longer;
+    }
+    if (moveBuffers[ply] == null) {
+      moveBuffers[ply] = new int[GameState.MAXMOVES];
+    }
+    return moveBuffers[ply];
+  }
+
+  /**
+   * alphaBeta() searches the root with maxval() and returns the best move
+   * along with its score.
+   * @return a Best object holding the best root move and its score
+   **/
+  protected Best alphaBeta() {
+    rootMove = PackedMove.NONE;
+    Best myBest = new Best();
+    myBest.score = maxval(0, GameState.EVALMIN-1, GameState.EVALMAX+1);
+    myBest.move = PackedMove.unpack(rootMove);
+    return myBest;
+  }
+
+  /**
+   * maxval() evaluates the current games state and returns the maximum score.
+   * At the root (depth 0) it also leaves the best move in rootMove.
    * @param depth represents the depth in the the tree that this call is function
    * @param alpha represents the value of the best alternative for max nodes along the path to state
    * @param beta represents the value of the best alternative for min nodes along the path to state
-   * @return a Best object containing the max score possible and the corresponding move that generates that score
-   **/
-  protected Best maxval(int depth, double alpha, double beta) {
-    debugPrint("start maxval: ( "+alpha+" , "+beta+" )  "+depth );
-    Best myBest = new Best(); 
-    // if leaf node or end game node
-    if(currentState.hasValidNetwork(color) ||
-       currentState.hasValidNetwork(GameState.opponent(color)) || 
-       depth>searchDepth) {
-      myBest.score = currentState.evaluation(color);
-      debugPrint("maxval end by depth or win: "+myBest.score);
+   * @return the maximum score found by enumerating moves of the given state
+   **/
+  protected double maxval(int depth, double alpha, double beta) {
+    stats.node(depth);
+    if(depth>horizon && quiesceDepth > 0) {
+      return quiesce(depth, 0, alpha, beta, color);
+    }
+    // if leaf node or end game node; a leaf goes straight to the evaluation
+    // cache, which looks for networks itself
+    if(depth>horizon || evalCache.hasNetwork(currentState, stats)) {
       if(depth == 0) { // should never happen return default move
-	SList possibleMoves = currentState.validMoves(color);
-	SListNode firstNode = possibleMoves.front();
-	Move firstMove = (Move) firstNode.item;
-	myBest.move = firstMove;
+	int[] possibleMoves = moveBuffer(depth);
+	if (currentState.generateMoves(color, possibleMoves) > 0) {
+	  rootMove = possibleMoves[0];
+	}
 	debugPrint("GAAAAAHHHHHHHHH");
       }
-      return myBest;
+      stats.evaluations++;
+      return evalCache.evaluation(currentState, color, stats);
+    }
+    if (timeUp()) {
+      return alpha;
     }
-    SList possibleMoves = currentState.validMoves(color);
-    debugPrint("valid moves: "+possibleMoves);
-    myBest.score = GameState.EVALMIN-1;
-    SListNode currentNode = possibleMoves.front();
-    for(int i = 0; i<possibleMoves.length(); i++) {
-      Move currentMove = (Move) currentNode.item;
-      debugPrint("considering move: "+currentMove);
-      debugPrint("original state:\n"+currentState);
-      currentState.move(currentMove, color);
-      debugPrint("after move:\n"+currentState);
+    int draft = horizon - depth + 1;  // plies left below this node
+    long key = currentState.hashKey();
+    double alphaOrig = alpha;
+    int hashMove = PackedMove.NONE;
+    long entry = table.probe(key);
+    if (entry != TranspositionTable.MISS) {
+      hashMove = TranspositionTable.move(entry);
+      if (depth > 0 && TranspositionTable.depth(entry) >= draft) {
+	double score = TranspositionTable.score(entry);
+	if (TranspositionTable.bound(entry) == TranspositionTable.EXACT) {
+	  return score;
+	} else if (TranspositionTable.bound(entry) == TranspositionTable.LOWER && score > alpha) {
+	  alpha = score;
+	} else if (TranspositionTable.bound(entry) == TranspositionTable.UPPER && score < beta) {
+	  beta = score;
+	}
+	if (alpha >= beta) {
+	  return score;
+	}
+      }
+    }
+    int[] possibleMoves = moveBuffer(depth);
+    int n = currentState.generateMoves(color, possibleMoves);
+    ordering.order(possibleMoves, n, currentState, color, depth, hashMove);
+    double maxVal = GameState.EVALMIN-1;
+    int maxMove = PackedMove.NONE;
+    for(int i = 0; i<n; i++) {
+      int currentMove = possibleMoves[i];
+      currentState.applyUnchecked(currentMove, color);
       double val = minval(depth+1,alpha,beta);
-      currentState.unmove(currentMove, color);
-      debugPrint("after unmove:\n"+currentState);
-      if(val > myBest.score) {
-	myBest.score = val;
-	myBest.move = currentMove;
-	debugPrint("this is the new best move: "+val);
-      }
-      if(myBest.score >= beta) {
-	debugPrint("alpha beta truncation: "+myBest.score);
-	return myBest;
+      currentState.undo();
+      if(outOfTime) {
+	return maxVal;  // incomplete, never stored or used
+      }
+      if(val > maxVal) {
+	maxVal = val;
+	maxMove = currentMove;
+	if(depth == 0) {
+	  rootMove = currentMove;
+	}
       }
-      if(myBest.score > alpha) {
-	alpha = myBest.score;
-	debugPrint("alpha update: "+alpha);
+      if(maxVal >= beta) {
+	ordering.cutoff(maxMove, color, depth, draft, i);
+	stats.cutoff(i);
+	table.store(key, draft, TranspositionTable.LOWER, maxVal, maxMove);
+	return maxVal;
+      }
+      if(maxVal > alpha) {
+	alpha = maxVal;
       }
-      currentNode=currentNode.next;
     }
     // decay a score of EVALMAX if it passes through a max node on search
-    if(myBest.score == GameState.EVALMAX) {
-      myBest.score-=DECAY;
+    if(maxVal == GameState.EVALMAX) {
+      maxVal-=DECAY;
     }
-    debugPrint("maxval return after search: "+myBest.score);
-    return myBest;
+    table.store(key, draft,
+		maxVal <= alphaOrig ? TranspositionTable.UPPER : TranspositionTable.EXACT,
+		maxVal, maxMove);
+    return maxVal;
   }
 
   /**
@@ -130,55 +637,500 @@ public class MachinePlayer extends Player {
    * @return the minimum score found by enumerating moves of the given state
    **/
   protected double minval(int depth, double alpha, double beta)  {
-    debugPrint("start minval: ( "+alpha+" , "+beta+" )  "+depth);
-    // if leaf node or end game node
-    if(currentState.hasValidNetwork(color) ||
-       currentState.hasValidNetwork(GameState.opponent(color)) || 
-       depth>searchDepth) {
-      debugPrint("end minval by valid network or search depth");
-      return currentState.evaluation(color);
-    }
-    SList possibleMoves = currentState.validMoves(GameState.opponent(color));
-    debugPrint("valid moves: "+possibleMoves);
+    stats.node(depth);
+    if(depth>horizon && quiesceDepth > 0) {
+      return -quiesce(depth, 0, -beta, -alpha, GameState.opponent(color));
+    }
+    // if leaf node or end game node; a leaf goes straight to the evaluation
+    // cache, which looks for networks itself
+    if(depth>horizon || evalCache.hasNetwork(currentState, stats)) {
+      stats.evaluations++;
+      return evalCache.evaluation(currentState, color, stats);
+    }
+    if (timeUp()) {
+      return beta;
+    }
+    int draft = horizon - depth + 1;  // plies left below this node
+    long key = currentState.hashKey();
+    double betaOrig = beta;
+    int hashMove = PackedMove.NONE;
+    long entry = table.probe(key);
+    if (entry != TranspositionTable.MISS) {
+      hashMove = TranspositionTable.move(entry);
+      if (TranspositionTable.depth(entry) >= draft) {
+	double score = TranspositionTable.score(entry);
+	if (TranspositionTable.bound(entry) == TranspositionTable.EXACT) {
+	  return score;
+	} else if (TranspositionTable.bound(entry) == TranspositionTable.LOWER && score > alpha) {
+	  alpha = score;
+	} else if (TranspositionTable.bound(entry) == TranspositionTable.UPPER && score < beta) {
+	  beta = score;
+	}
+	if (alpha >= beta) {
+	  return score;
+	}
+      }
+    }
+    int opponent = GameState.opponent(color);
+    int[] possibleMoves = moveBuffer(depth);
+    int n = currentState.generateMoves(opponent, possibleMoves);
+    ordering.order(possibleMoves, n, currentState, opponent, depth, hashMove);
     double minVal = GameState.EVALMAX;
-    SListNode currentNode = possibleMoves.front();
-    for(int i = 0; i<possibleMoves.length(); i++) {
-      Move currentMove = (Move) currentNode.item;
-      debugPrint("considering move: "+currentMove);
-      debugPrint("original state:\n"+currentState);
-      currentState.move(currentMove, GameState.opponent(color));
-      debugPrint("after move:\n"+currentState);
-      Best theBest = maxval(depth+1,alpha,beta);
-      double val = theBest.score;
-      currentState.unmove(currentMove, GameState.opponent(color));
-      debugPrint("after unmove:\n"+currentState);
+    int minMove = PackedMove.NONE;
+    for(int i = 0; i<n; i++) {
+      int currentMove = possibleMoves[i];
+      currentState.applyUnchecked(currentMove, opponent);
+      double val = maxval(depth+1,alpha,beta);
+      currentState.undo();
+      if(outOfTime) {
+	return minVal;  // incomplete, never stored or used
+      }
       if(val < minVal) {
 	minVal = val;
-	debugPrint("this is the new best move: "+val);
+	minMove = currentMove;
       }
       if(minVal <= alpha) {
-	debugPrint("alpha beta truncation: "+minVal);
+	ordering.cutoff(minMove, opponent, depth, draft, i);
+	stats.cutoff(i);
+	table.store(key, draft, TranspositionTable.UPPER, minVal, minMove);
 	return minVal;
       }
       if(minVal < beta) {
 	beta = minVal;
-	debugPrint("beta update: "+beta);
       }
-      currentNode = currentNode.next;
     }
     // decay a score of MINVAL if it passes through a min node on search
     if(minVal == GameState.EVALMIN) {
       minVal+= DECAY;
     }
-    debugPrint("minval return after search: " + minVal);
+    table.store(key, draft,
+		minVal >= betaOrig ? TranspositionTable.LOWER : TranspositionTable.EXACT,
+		minVal, minMove);
     return minVal;
   }
 
+  /**
+   * quiesce() searches a leaf of the main search until it is quiet.  Only
+   * forcing moves are searched: a move that completes a network ends the
+   * search at once; if the opponent threatens to complete one, only the
+   * moves that block every such threat are searched, and the position is
+   * lost if there are none; otherwise the side to move may stand pat on the
+   * static evaluation, or, in the first quiesceThreats plies, play a move
+   * that makes a threat of its own.  After quiesceDepth plies the static
+   * evaluation is returned as it is.  Scores
+   * are seen from the point of view of the side to move, as in pvs().
+   * @param ply is the depth of the node in the whole search tree
+   * @param qdepth is the number of plies searched beyond the horizon
+   * @param alpha is the score 'side' is already assured of
+   * @param beta is the score the opponent of 'side' is already assured of
+   * @param side is the side to move (BLACK or WHITE)
+   * @return the score of the position, seen from the point of view of 'side'
+   **/
+  protected double quiesce(int ply, int qdepth, double alpha, double beta, int side) {
+    if (qdepth > 0) {
+      stats.node(ply);  // the horizon node was counted by the caller
+    }
+    stats.quiesceNodes++;
+    if (qdepth >= quiesceDepth || evalCache.hasNetwork(currentState, stats)) {
+      stats.evaluations++;
+      return evalCache.evaluation(currentState, side, stats);
+    }
+    if (timeUp()) {
+      return alpha;
+    }
+    int opponent = GameState.opponent(side);
+    if (currentState.winningMove(side, threatBuffer) != PackedMove.NONE) {
+      return GameState.EVALMAX - DECAY;
+    }
+    boolean threatened = currentState.winningMove(opponent, threatBuffer) != PackedMove.NONE;
+    double best;
+    if (threatened) {
+      best = GameState.EVALMIN + DECAY;  // the threat is carried out unless blocked
+    } else {
+      stats.evaluations++;
+      best = evalCache.evaluation(currentState, side, stats);
+      if (best >= beta || qdepth >= quiesceThreats) {
+	stats.standPats++;  // no threat to make or to block: no move could be searched
+	return best;
+      }
+      if (best > alpha) {
+	alpha = best;
+      }
+    }
+    int[] possibleMoves = moveBuffer(ply);
+    int n = currentState.generateMoves(side, possibleMoves);
+    boolean searched = false;
+    for (int i = 0; i < n; i++) {
+      int currentMove = possibleMoves[i];
+      currentState.applyUnchecked(currentMove, side);
+      boolean forcing;
+      if (evalCache.hasNetwork(currentState, stats)) {
+	forcing = false;  // no move wins here, so this one gives the opponent a network
+      } else if (threatened) {
+	forcing = currentState.winningMove(opponent, threatBuffer) == PackedMove.NONE;
+      } else {
+	forcing = currentState.winningMove(side, threatBuffer) != PackedMove.NONE;
+      }
+      double val = best;
+      if (forcing) {
+	searched = true;
+	val = -quiesce(ply + 1, qdepth + 1, -beta, -alpha, opponent);
+      }
+      currentState.undo();
+      if (val > best) {
+	best = val;
+      }
+      if (best >= beta) {
+	return best;
+      }
+      if (best > alpha) {
+	alpha = best;
+      }
+    }
+    if (!searched && !threatened) {
+      stats.standPats++;
+    }
+    return best;
+  }
+
+  /**
+   * prepareHelpers() creates the helper threads and their searchers if need
+   * be, and gives every helper a fresh copy of the current game.
+   **/
+  protected void prepareHelpers() {
+    if (pool == null) {
+      pool = new ForkJoinPool(threads);
+    }
+    if (helpers == null) {
+      helpers = new MachinePlayer[threads];
+      for (int i = 0; i < threads; i++) {
+	helpers[i] = new MachinePlayer(this);
+      }
+    }
+    for (int i = 0; i < threads; i++) {
+      helpers[i].currentState = new GameState(currentState);
+      helpers[i].ordering.newSearch();
+      helpers[i].deadline = deadline;
+      helpers[i].outOfTime = false;
+      helpers[i].stats = new SearchStats();
+    }
+  }
+
+  /**
+   * collectHelperStats() adds the counts of the helpers of the search just
+   * finished into those of this player.  A helper's network tests are read
+   * off its copy of the game, which prepareHelpers() made fresh.
+   **/
+  protected void collectHelperStats() {
+    for (int i = 0; i < threads; i++) {
+      helpers[i].stats.networkTests = helpers[i].currentState.networkTests;
+      stats.add(helpers[i].stats);
+    }
+  }
+
+  /**
+   * startLazyHelpers() starts helpers 1 to threads - 1 (this player itself
+   * searches as thread 0), each running its own
+   * iterative deepening search of the current game alongside this player's
+   * search.  The helpers only make themselves useful through the shared
+   * transposition table.  To keep them from all searching the same tree in
+   * the same order, every second helper starts one ply deeper, and helpers
+   * 2 and 3 mod 4 add noise to their move ordering.
+   * @return the running helper tasks, to be given to stopLazyHelpers()
+   **/
+  protected ForkJoinTask<?>[] startLazyHelpers() {
+    ForkJoinTask<?>[] running = new ForkJoinTask<?>[threads - 1];
+    for (int i = 1; i < threads; i++) {
+      helpers[i].stopped = false;
+      helpers[i].ordering.setNoise((i & 2) != 0 ? HELPERNOISE : 0, i);
+      running[i - 1] = pool.submit(new LazySmpTask(helpers[i], 1 + (i & 1)));
+    }
+    return running;
+  }
+
+  /**
+   * stopLazyHelpers() tells the helpers started by startLazyHelpers() to
+   * stop, and waits until they have.
+   * @param running is the array returned by startLazyHelpers()
+   **/
+  protected void stopLazyHelpers(ForkJoinTask<?>[] running) {
+    for (int i = 1; i < threads; i++) {
+      helpers[i].stopped = true;
+    }
+    for (int i = 0; i < running.length; i++) {
+      running[i].join();
+    }
+  }
+
+  /**
+   * helperSearch() is run by a LAZYSMP helper: an iterative deepening search
+   * with maxval() from horizon 'firstHorizon' up to one ply beyond
+   * searchDepth, until it is stopped or runs out of time.  Its results are
+   * only kept in the shared transposition table.
+   * @param firstHorizon is the horizon of the first iteration, at least 1
+   **/
+  protected void helperSearch(int firstHorizon) {
+    for (horizon = firstHorizon; horizon <= searchDepth + 1; horizon++) {
+      maxval(0, GameState.EVALMIN-1, GameState.EVALMAX+1);
+      if (outOfTime) {
+	return;
+      }
+    }
+  }
+
+  /**
+   * splitRoot() searches the root in Young Brothers Wait style: the first
+   * (best ordered) root move is searched alone with the full window, then
+   * the other root moves are shared out among the helper threads.  Each
+   * helper searches its moves with maxval/minval on its own copy of the game,
+   * using the best root score found so far by any thread as alpha.
+   * @return a Best object holding the best root move and its score
+   **/
+  protected Best splitRoot() {
+    int hashMove = PackedMove.NONE;
+    long key = currentState.hashKey();
+    long entry = table.probe(key);
+    if (entry != TranspositionTable.MISS) {
+      hashMove = TranspositionTable.move(entry);
+    }
+    if (evalCache.hasNetwork(currentState, stats)) {
+      return alphaBeta();
+    }
+    int[] possibleMoves = moveBuffer(0);
+    int n = currentState.generateMoves(color, possibleMoves);
+    if (n == 0) {
+      return alphaBeta();
+    }
+    ordering.order(possibleMoves, n, currentState, color, 0, hashMove);
+    Best myBest = new Best();
+    // the eldest brother is searched before the others may start
+    currentState.applyUnchecked(possibleMoves[0], color);
+    double val = minval(1, GameState.EVALMIN-1, GameState.EVALMAX+1);
+    currentState.undo();
+    if (outOfTime) {
+      return myBest;
+    }
+    rootMove = possibleMoves[0];
+    rootIndex = 0;
+    rootAlpha = new AtomicLong(Double.doubleToLongBits(val));
+    if (n > 1) {
+      for (int i = 0; i < threads; i++) {
+	helpers[i].horizon = horizon;
+      }
+      AtomicInteger next = new AtomicInteger(1);
+      ForkJoinTask<?>[] running = new ForkJoinTask<?>[threads];
+      for (int i = 0; i < threads; i++) {
+	running[i] = pool.submit(new RootSplitTask(helpers[i], this, possibleMoves, n, next));
+      }
+      for (int i = 0; i < threads; i++) {
+	running[i].join();
+      }
+      for (int i = 0; i < threads; i++) {
+	if (helpers[i].outOfTime) {
+	  outOfTime = true;
+	  return myBest;
+	}
+      }
+    }
+    myBest.move = PackedMove.unpack(rootMove);
+    myBest.score = Double.longBitsToDouble(rootAlpha.get());
+    // decay a score of EVALMAX at the root, a max node, as maxval() does
+    if (myBest.score == GameState.EVALMAX) {
+      myBest.score -= DECAY;
+    }
+    table.store(key, horizon + 1, TranspositionTable.EXACT, myBest.score,
+		rootMove);
+    return myBest;
+  }
+
+  /**
+   * searchRootMoves() is run by a helper during splitRoot().  It takes root
+   * moves from 'next' until there are none left and reports every move that
+   * beats the best score so far to 'parent'.
+   * @param moves holds the ordered packed root moves
+   * @param n is the number of root moves
+   * @param next is the index of the next move to be searched by any helper
+   * @param parent is the player whose root is being searched
+   **/
+  protected void searchRootMoves(int[] moves, int n, AtomicInteger next,
+				 MachinePlayer parent) {
+    for (int i = next.getAndIncrement(); i < n; i = next.getAndIncrement()) {
+      double alpha = Double.longBitsToDouble(parent.rootAlpha.get());
+      currentState.applyUnchecked(moves[i], color);
+      double val = minval(1, alpha, GameState.EVALMAX+1);
+      currentState.undo();
+      if (outOfTime) {
+	return;
+      }
+      if (val > alpha) {
+	parent.offerRootMove(moves[i], i, val);
+      }
+    }
+  }
+
+  /**
+   * offerRootMove() records a root move found by a helper if it is better
+   * than the best so far.  Between moves of equal score, the one earlier in
+   * move order wins, as in a sequential search.
+   * @param m is the packed root move
+   * @param index is its index among the ordered root moves
+   * @param val is its score
+   **/
+  protected synchronized void offerRootMove(int m, int index, double val) {
+    double best = Double.longBitsToDouble(rootAlpha.get());
+    if (val > best || (val == best && index < rootIndex)) {
+      rootMove = m;
+      rootIndex = index;
+      rootAlpha.set(Double.doubleToLongBits(val));
+    }
+  }
+
+  /**
+   * aspiration() runs a principal variation search of the root with a
+   * narrow window around 'guess', and searches again with the full window
+   * if the score falls outside of it.  The first iteration always uses the
+   * full window.
+   * @param guess is the expected score, usually that of the previous iteration
+   * @return a Best object holding the best root move and its score
+   **/
+  protected Best aspiration(double guess) {
+    Best myBest;
+    if (horizon > 0) {
+      double alpha = guess - ASPIRATION;
+      double beta = guess + ASPIRATION;
+      myBest = principalVariation(alpha, beta);
+      if (outOfTime || (myBest.score > alpha && myBest.score < beta)) {
+	return myBest;
+      }
+      debugPrint("aspiration window missed: " + myBest.score);
+    }
+    return principalVariation(GameState.EVALMIN-1, GameState.EVALMAX+1);
+  }
+
+  /**
+   * principalVariation() searches the root with pvs() and returns the best
+   * move along with its score, seen from this player's side.
+   * @param alpha is the lower end of the root window
+   * @param beta is the upper end of the root window
+   * @return a Best object holding the best root move and its score
+   **/
+  protected Best principalVariation(double alpha, double beta) {
+    rootMove = PackedMove.NONE;
+    Best myBest = new Best();
+    myBest.score = pvs(0, alpha, beta, color);
+    if (rootMove == PackedMove.NONE) { // game already over, play any move
+      int[] possibleMoves = moveBuffer(0);
+      if (currentState.generateMoves(color, possibleMoves) > 0) {
+	rootMove = possibleMoves[0];
+      }
+    }
+    myBest.move = PackedMove.unpack(rootMove);
+    return myBest;
+  }
+
+  /**
+   * pvs() is a negamax principal variation search.  The first move of every
+   * node is searched with the full window; the others are searched with a
+   * null window around alpha, which only proves they are no better, and are
+   * searched again with the full window if they turn out to be better.
+   * @param depth represents the depth in the tree of this call
+   * @param alpha is the score 'side' is already assured of
+   * @param beta is the score the opponent of 'side' is already assured of
+   * @param side is the side to move (BLACK or WHITE)
+   * @return the score of the position, seen from the point of view of 'side'
+   **/
+  protected double pvs(int depth, double alpha, double beta, int side) {
+    stats.node(depth);
+    int opponent = GameState.opponent(side);
+    if(depth>horizon && quiesceDepth > 0) {
+      return quiesce(depth, 0, alpha, beta, side);
+    }
+    if(depth>horizon ||  // the cache looks for networks itself
+       evalCache.hasNetwork(currentState, stats)) {
+      stats.evaluations++;
+      return evalCache.evaluation(currentState, side, stats);
+    }
+    if (timeUp()) {
+      return alpha;
+    }
+    int draft = horizon - depth + 1;  // plies left below this node
+    long key = currentState.hashKey();
+    double alphaOrig = alpha;
+    int hashMove = PackedMove.NONE;
+    long entry = table.probe(key);
+    if (entry != TranspositionTable.MISS) {
+      hashMove = TranspositionTable.move(entry);
+      if (depth > 0 && TranspositionTable.depth(entry) >= draft) {
+	double score = TranspositionTable.score(entry);
+	if (TranspositionTable.bound(entry) == TranspositionTable.EXACT) {
+	  return score;
+	} else if (TranspositionTable.bound(entry) == TranspositionTable.LOWER && score > alpha) {
+	  alpha = score;
+	} else if (TranspositionTable.bound(entry) == TranspositionTable.UPPER && score < beta) {
+	  beta = score;
+	}
+	if (alpha >= beta) {
+	  return score;
+	}
+      }
+    }
+    int[] possibleMoves = moveBuffer(depth);
+    int n = currentState.generateMoves(side, possibleMoves);
+    ordering.order(possibleMoves, n, currentState, side, depth, hashMove);
+    double best = GameState.EVALMIN-1;
+    int bestMove = PackedMove.NONE;
+    for(int i = 0; i<n; i++) {
+      int currentMove = possibleMoves[i];
+      currentState.applyUnchecked(currentMove, side);
+      double val;
+      if (i == 0) {
+	val = -pvs(depth+1, -beta, -alpha, opponent);
+      } else {
+	val = -pvs(depth+1, -alpha-NULLWINDOW, -alpha, opponent);
+	if (val > alpha && val < beta && !outOfTime) {
+	  val = -pvs(depth+1, -beta, -alpha, opponent);
+	}
+      }
+      currentState.undo();
+      if(outOfTime) {
+	return best;  // incomplete, never stored or used
+      }
+      if(val > best) {
+	best = val;
+	bestMove = currentMove;
+	if (depth == 0) {
+	  rootMove = currentMove;
+	}
+      }
+      if(best >= beta) {
+	ordering.cutoff(bestMove, side, depth, draft, i);
+	stats.cutoff(i);
+	table.store(key, draft, TranspositionTable.LOWER, best, bestMove);
+	return best;
+      }
+      if(best > alpha) {
+	alpha = best;
+      }
+    }
+    // decay a win or loss as it passes up the tree, so that quick wins and
+    // slow losses are preferred
+    if(best == GameState.EVALMAX) {
+      best-=DECAY;
+    } else if(best == GameState.EVALMIN) {
+      best+=DECAY;
+    }
+    table.store(key, draft,
+		best <= alphaOrig ? TranspositionTable.UPPER : TranspositionTable.EXACT,
+		best, bestMove);
+    return best;
+  }
+
   // If the Move m is legal, records the move as a move by the opponent
   // (updates the internal game board) and returns true.  If the move is
   // illegal, returns false without modifying the internal state of "this"
   // player.  This method allows your opponents to inform you of their moves.
   public boolean opponentMove(Move m) {
+    stopPondering();
     return currentState.move(m, GameState.opponent(color));
   }
 
@@ -188,6 +1140,7 @@ public class MachinePlayer extends Player {
   // player.  This method is used to help set up "Network problems" for your
   // player to solve.
   public boolean forceMove(Move m) {
+    stopPondering();
     return currentState.move(m, color);
   }
 
@@ -0,0 +1,152 @@
+/* MoveOrdering.java */
+
+package player;
+
+import java.util.Arrays;
+
+/**
+ *  MoveOrdering sorts the moves of a search node so that the moves most
+ *  likely to cause an alpha-beta cutoff are searched first.  In order:
+ *
+ *    1.  the best move stored in the transposition table;
+ *    2.  the two killer moves of the ply (recent moves that caused a cutoff
+ *        at the same depth in a sibling subtree);
+ *    3.  all other moves, by history score (how often and how deep a move
+ *        with the same source and destination squares caused a cutoff) plus
+ *        the GameState.connectionSignal() of the move.
+ *
+ *  How good the ordering is shows in the cutoffs of SearchStats, which
+ *  counts them by the index of the move that caused them.
+ */
+public class MoveOrdering {
+
+  static final int MAXPLY = 64;
+  static final int HASHMOVESCORE = 1 << 30;
+  static final int KILLERSCORE = 1 << 28;  // the second killer gets one less
+  static final int HISTORYMAX = 1 << 20;   // history is halved beyond this
+  static final int SIGNALWEIGHT = 64;      // history bonus per connectionSignal() point
+  static final int ADDSOURCE = 64;         // history "source square" of ADD moves
+
+  private int[][] killers = new int[MAXPLY][2];
+  private int[][][] history = new int[2][ADDSOURCE + 1][64];
+  private long[] keys = new long[GameState.MAXMOVES];    // sort keys used by order()
+  private int[] scratch = new int[GameState.MAXMOVES];   // moves being sorted by order()
+
+  private int noise;  // history scores get a random bonus below this, 0 for none
+  private int seed;   // state of the noise generator
+
+  /**
+   * newSearch() forgets the killer moves and halves the history scores, so
+   * that recent searches count more than old ones.
+   **/
+  public void newSearch() {
+    for (int ply = 0; ply < MAXPLY; ply++) {
+      killers[ply][0] = PackedMove.NONE;
+      killers[ply][1] = PackedMove.NONE;
+    }
+    ageHistory();
+  }
+
+  /**
+   * setNoise() makes the order of moves that are not hash or killer moves
+   * slightly random, so that several threads searching the same position
+   * do not all search it in the same order.
+   * @param amount is the largest bonus added to a history score, 0 for none
+   * @param seed seeds the random bonuses
+   **/
+  public void setNoise(int amount, int seed) {
+    noise = amount;
+    this.seed = seed | 1;
+  }
+
+  /**
+   * order() sorts the first 'n' moves of 'moves' in place, best first.
+   * Moves that score the same keep their relative order.
+   * @param moves holds packed moves
+   * @param n is the number of moves
+   * @param state is the position the moves are played from
+   * @param side is the side to move (BLACK or WHITE)
+   * @param ply is the depth of the node in the search tree
+   * @param hashMove is the packed transposition table move, or PackedMove.NONE
+   **/
+  public void order(int[] moves, int n, GameState state, int side, int ply, int hashMove) {
+    for (int i = 0; i < n; i++) {
+      // highest score first, then original order
+      keys[i] = ((long) -score(moves[i], state, side, ply, hashMove) << 32) | i;
+      scratch[i] = moves[i];
+    }
+    Arrays.sort(keys, 0, n);
+    for (int i = 0; i < n; i++) {
+      moves[i] = scratch[(int) keys[i]];
+    }
+  }
+
+  //returns the ordering score of packed move 'm'; higher is searched earlier
+  private int score(int m, GameState state, int side, int ply, int hashMove) {
+    if (m == hashMove) {
+      return HASHMOVESCORE;
+    }
+    if (ply < MAXPLY) {
+      if (m == killers[ply][0]) {
+	return KILLERSCORE;
+      }
+      if (m == killers[ply][1]) {
+	return KILLERSCORE - 1;
+      }
+    }
+    int score = history[GameState.colorIndex(side)][source(m)][to(m)]
+      + SIGNALWEIGHT * state.connectionSignal(m, side);
+    if (noise > 0) {
+      seed ^= seed << 13;  // xorshift
+      seed ^= seed >>> 17;
+      seed ^= seed << 5;
+      score += (seed >>> 1) % noise;
+    }
+    return score;
+  }
+
+  /**
+   * cutoff() records that move 'm' caused a cutoff, making it a killer move
+   * of its ply and raising its history score.
+   * @param m is the packed move that caused the cutoff
+   * @param side is the side that played it
+   * @param ply is the depth of the node in the search tree
+   * @param draft is the number of plies searched below the node
+   * @param index is the position of 'm' in the ordered move list, from 0
+   **/
+  public void cutoff(int m, int side, int ply, int draft, int index) {
+    if (ply < MAXPLY && killers[ply][0] != m) {
+      killers[ply][1] = killers[ply][0];
+      killers[ply][0] = m;
+    }
+    int[] row = history[GameState.colorIndex(side)][source(m)];
+    row[to(m)] += draft * draft;
+    if (row[to(m)] > HISTORYMAX) {
+      ageHistory();
+    }
+  }
+
+  //halves every history score
+  private void ageHistory() {
+    for (int c = 0; c < history.length; c++) {
+      for (int from = 0; from <= ADDSOURCE; from++) {
+	for (int to = 0; to < 64; to++) {
+	  history[c][from][to] >>= 1;
+	}
+      }
+    }
+  }
+
+  //returns the history source square of packed move 'm': its old square, or ADDSOURCE for ADD moves
+  private static int source(int m) {
+    if (PackedMove.kind(m) == Move.STEP) {
+      return Board.square(PackedMove.x2(m), PackedMove.y2(m));
+    }
+    return ADDSOURCE;
+  }
+
+  //returns the square packed move 'm' puts a chip on
+  private static int to(int m) {
+    return Board.square(PackedMove.x1(m), PackedMove.y1(m));
+  }
+}
@@ -0,0 +1,267 @@
+/* OpeningBook.java */
+
+package player;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *  An opening book: the best move and score of opening positions, found
+ *  offline by deep searches and kept in a file that is memory-mapped at run
+ *  time.  Looking up a position is a binary search over the mapped file, so
+ *  it takes microseconds and reads only the pages it touches.
+ *
+ *  The file is a header (MAGIC, then the number of entries, as ints)
+ *  followed by the entries, sorted by key.  An entry is ENTRYBYTES bytes:
+ *  the GameState.hashKey() of the position (long), the packed best move
+ *  (short) and its score for the side to move times SCORESCALE (short).
+ *  Everything is big-endian, as written by DataOutputStream.
+ *
+ *  main() builds a book: see build().
+ */
+public class OpeningBook {
+
+  static final int MAGIC = 0x4E424B31;  // "NBK1"
+  static final int HEADERBYTES = 8;
+  static final int ENTRYBYTES = 12;
+  static final double SCORESCALE = 100;  // scores are stored as fixed point
+
+  static final int DEFAULTPLIES = 4;  // build() covers positions with fewer chips than this
+  static final int DEFAULTDEPTH = 4;  // searchDepth of the searches run by build()
+
+  private MappedByteBuffer entries;
+  private int size;
+
+  // Constructs a book over a mapped book file holding 'size' entries.
+  private OpeningBook(MappedByteBuffer entries, int size) {
+    this.entries = entries;
+    this.size = size;
+  }
+
+  /**
+   * open() memory-maps a book file written by build().
+   * @param path is the name of the file
+   * @return the book
+   * @throws IOException if the file cannot be read or is not a book
+   **/
+  public static OpeningBook open(String path) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(path, "r");
+    try {
+      FileChannel channel = file.getChannel();
+      long length = channel.size();
+      if (length < HEADERBYTES || length > Integer.MAX_VALUE) {
+	throw new IOException("not an opening book: " + path);
+      }
+      // the mapping stays valid after the file is closed
+      MappedByteBuffer entries = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+      int size = entries.getInt(4);
+      if (entries.getInt(0) != MAGIC || size < 0
+	  || length != HEADERBYTES + (long) size * ENTRYBYTES) {
+	throw new IOException("not an opening book: " + path);
+      }
+      return new OpeningBook(entries, size);
+    } finally {
+      file.close();
+    }
+  }
+
+  //returns the number of positions in the book
+  public int size() {
+    return size;
+  }
+
+  /**
+   * find() looks up a position by binary search.  It only uses absolute
+   * reads of the mapped file, so several threads may share a book.
+   * @param key is the GameState.hashKey() of the position
+   * @return the index of its entry, or -1 if the position is not in the book
+   **/
+  public int find(long key) {
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      long k = entries.getLong(HEADERBYTES + middle * ENTRYBYTES);
+      if (k < key) {
+	low = middle + 1;
+      } else if (k > key) {
+	high = middle - 1;
+      } else {
+	return middle;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * move() returns the book move of a position.
+   * @param key is the GameState.hashKey() of the position
+   * @return the packed move, or PackedMove.NONE if the position is not in
+   * the book
+   **/
+  public int move(long key) {
+    int i = find(key);
+    if (i < 0) {
+      return PackedMove.NONE;
+    }
+    return entries.getShort(HEADERBYTES + i * ENTRYBYTES + 8) & 0xFFFF;
+  }
+
+  /**
+   * score() returns the score of entry 'i', for the side to move.
+   * @param i is an index returned by find()
+   * @return the score found when the book was built
+   **/
+  public double score(int i) {
+    return entries.getShort(HEADERBYTES + i * ENTRYBYTES + 10) / SCORESCALE;
+  }
+
+  /**
+   * build() searches opening positions and writes a book file.  For each
+   * side it walks the positions with fewer than 'plies' chips in which that
+   * side always plays its book move and the other side plays every legal
+   * move, and searches every position in which the side is to move.  The
+   * positions of one ply are searched in parallel, since their book moves
+   * decide which positions the next ply holds.  Transposed positions are
+   * searched once.
+   * @param path is the name of the file to write
+   * @param plies is the number of plies the book covers
+   * @param depth is the searchDepth of every search
+   * @param threads is the number of search threads
+   * @throws IOException if the file cannot be written
+   **/
+  public static void build(String path, int plies, int depth, int threads)
+    throws IOException {
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    TreeMap<Long, Integer> book = new TreeMap<Long, Integer>();  // key -> score << 16 | move
+    for (int side : new int[] {GameState.WHITE, GameState.BLACK}) {
+      MachinePlayer[] searchers = new MachinePlayer[threads];
+      for (int i = 0; i < threads; i++) {
+	searchers[i] = new MachinePlayer(side == GameState.WHITE ? 1 : 0, depth);
+      }
+      ArrayList<GameState> frontier = new ArrayList<GameState>();
+      frontier.add(new GameState());
+      for (int ply = 0; ply < plies && !frontier.isEmpty(); ply++) {
+	ArrayList<GameState> next = new ArrayList<GameState>();
+	if (frontier.get(0).sideToMove == side) {
+	  GameState[] positions = frontier.toArray(new GameState[frontier.size()]);
+	  int[] results = new int[positions.length];
+	  AtomicInteger taken = new AtomicInteger();
+	  ForkJoinTask<?>[] running = new ForkJoinTask<?>[threads];
+	  for (int i = 0; i < threads; i++) {
+	    running[i] = pool.submit(new BookBuildTask(searchers[i], positions, results, taken));
+	  }
+	  for (int i = 0; i < threads; i++) {
+	    running[i].join();
+	  }
+	  for (int i = 0; i < positions.length; i++) {
+	    int move = results[i] & 0xFFFF;
+	    if (move == PackedMove.NONE) {
+	      continue;
+	    }
+	    book.put(positions[i].hashKey(), results[i]);
+	    GameState child = new GameState(positions[i]);
+	    child.applyUnchecked(move, side);
+	    if (!child.hasValidNetwork(side)) {
+	      next.add(child);
+	    }
+	  }
+	} else {
+	  HashSet<Long> seen = new HashSet<Long>();
+	  int[] moves = new int[GameState.MAXMOVES];
+	  int enemy = GameState.opponent(side);
+	  for (GameState position : frontier) {
+	    int n = position.generateMoves(enemy, moves);
+	    for (int i = 0; i < n; i++) {
+	      GameState child = new GameState(position);
+	      child.applyUnchecked(moves[i], enemy);
+	      if (!child.hasValidNetwork(enemy) && seen.add(child.hashKey())) {
+		next.add(child);
+	      }
+	    }
+	  }
+	}
+	frontier = next;
+	System.out.println("side " + side + " ply " + ply + ": " + book.size()
+			   + " positions in the book");
+      }
+    }
+    pool.shutdown();
+    DataOutputStream out =
+      new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(book.size());
+      for (Map.Entry<Long, Integer> entry : book.entrySet()) {
+	out.writeLong(entry.getKey());
+	out.writeShort(entry.getValue() & 0xFFFF);
+	out.writeShort(entry.getValue() >> 16);
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * search() finds the book move of one position with 'searcher', which is
+   * set to play the side to move.
+   * @return the score times SCORESCALE, shifted left 16 bits, OR the packed move
+   **/
+  static int search(MachinePlayer searcher, GameState position) {
+    searcher.color = position.sideToMove;
+    searcher.currentState = new GameState(position);
+    Best best = searcher.fixedDepthSearch();
+    int score = (int) Math.round(best.score * SCORESCALE);
+    return (score << 16) | PackedMove.pack(best.move);
+  }
+
+  /**
+   * main() builds a book, then times lookups of every position in it.
+   * Usage: java player.OpeningBook file [plies] [depth] [threads]
+   **/
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.out.println("usage: java player.OpeningBook file [plies] [depth] [threads]");
+      return;
+    }
+    int plies = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULTPLIES;
+    int depth = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULTDEPTH;
+    int threads = args.length > 3 ? Integer.parseInt(args[3])
+      : Runtime.getRuntime().availableProcessors();
+    long start = System.currentTimeMillis();
+    build(args[0], plies, depth, threads);
+    System.out.println("built in " + (System.currentTimeMillis() - start) + " ms");
+
+    OpeningBook book = open(args[0]);
+    long[] keys = new long[book.size()];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = book.entries.getLong(HEADERBYTES + i * ENTRYBYTES);
+    }
+    int found = 0;
+    long time = 0;
+    for (int pass = 0; pass < 20; pass++) {
+      found = 0;
+      time = System.nanoTime();
+      for (int i = 0; i < keys.length; i++) {
+	if (book.move(keys[i]) != PackedMove.NONE) {
+	  found++;
+	}
+      }
+      time = System.nanoTime() - time;
+    }
+    System.out.println(book.size() + " positions, " + found + " found, "
+		       + (keys.length == 0 ? 0 : time / keys.length) + " ns per lookup");
+  }
+}
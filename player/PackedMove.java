@@ -0,0 +1,75 @@
+/* PackedMove.java */
+
+package player;
+
+/**
+ *  PackedMove holds static methods for storing a Move in a single int, so that
+ *  moves can be kept in tables and arrays without allocating Move objects.
+ *
+ *  The layout is kind (2 bits) | x1 | y1 | x2 | y2 (3 bits each), from the high
+ *  bits to the low bits.  NONE (a packed QUIT move) means "no move".
+ */
+public class PackedMove {
+
+  static final int NONE = 0;
+
+  /**
+   * pack() encodes a Move as an int.
+   * @param m is the Move to encode, or null
+   * @return the packed move, NONE if m is null
+   **/
+  static int pack(Move m) {
+    if (m == null || m.moveKind == Move.QUIT) {
+      return NONE;
+    } else if (m.moveKind == Move.ADD) {
+      return add(m.x1, m.y1);
+    }
+    return step(m.x1, m.y1, m.x2, m.y2);
+  }
+
+  //returns the packed ADD move to (x, y)
+  static int add(int x, int y) {
+    return (Move.ADD << 12) | (x << 9) | (y << 6);
+  }
+
+  //returns the packed STEP move from (x2, y2) to (x1, y1)
+  static int step(int x1, int y1, int x2, int y2) {
+    return (Move.STEP << 12) | (x1 << 9) | (y1 << 6) | (x2 << 3) | y2;
+  }
+
+  /**
+   * unpack() decodes a packed move back into a new Move object.
+   * @param packed is a move encoded by pack()
+   * @return the corresponding Move
+   **/
+  static Move unpack(int packed) {
+    switch (kind(packed)) {
+    case Move.ADD:
+      return new Move(x1(packed), y1(packed));
+    case Move.STEP:
+      return new Move(x1(packed), y1(packed), x2(packed), y2(packed));
+    default:
+      return new Move();
+    }
+  }
+
+  static int kind(int packed) {
+    return packed >>> 12;
+  }
+
+  static int x1(int packed) {
+    return (packed >>> 9) & 7;
+  }
+
+  static int y1(int packed) {
+    return (packed >>> 6) & 7;
+  }
+
+  static int x2(int packed) {
+    return (packed >>> 3) & 7;
+  }
+
+  static int y2(int packed) {
+    return packed & 7;
+  }
+}
@@ -0,0 +1,273 @@
+/* Perft.java */
+
+package player;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *  Perft counts the leaves of the full move tree of a position to a given
+ *  depth, to check the move generators against each other and to measure
+ *  how fast they are.  Networks do not end the game here: the tree is the
+ *  tree of the generators, so every position has its moves expanded.
+ *
+ *  count() walks the tree with generateMoves().  reference() walks it with
+ *  validMoves(), which may list a step move more than once.  It counts the
+ *  leaves twice: once over unique moves, which must agree with count(), and
+ *  once over every move as listed, duplicates included, which is the tree a
+ *  search over validMoves() would visit.  At every node it also checks that
+ *  the unique moves of validMoves() are exactly those of generateMoves().
+ *
+ *  Run it with "java player.Perft depth [-threads n] [-position k] [-check]".
+ *  The position is number k of Positions.standard(), or the empty board by
+ *  default.  With -threads the root moves are shared out among n threads;
+ *  with -check the validMoves() tree is walked as well, in a pass of its
+ *  own after the timed generateMoves() one, so that nodes/s is always the
+ *  speed of generateMoves().
+ *  The rates of the shallow depths, which take a few milliseconds, are
+ *  mostly JIT warm-up and timer noise; compare speeds at a depth that runs
+ *  for seconds.
+ */
+public class Perft {
+
+  static final int MOVEKEYS = 1 << 14;  // packed moves are smaller than this
+
+  private GameState state;  // walked by applyUnchecked() and undo()
+  private int[][] buffers = new int[MoveOrdering.MAXPLY][];  // move list of each ply
+  private int[] seen = new int[MOVEKEYS];  // stamp of the node that last listed each move
+  private int[] listed = new int[MOVEKEYS];  // times validMoves() listed each move there
+  private int stamp;
+  protected long mismatches;  // nodes where validMoves() and generateMoves() differ
+
+  // Constructs a counter that works on its own copy of 'state'.
+  Perft(GameState state) {
+    this.state = new GameState(state);
+  }
+
+  /**
+   * count() counts the leaves of the generateMoves() tree.
+   * @param side is the side to move
+   * @param depth is the number of plies to go down
+   * @return the number of leaves
+   **/
+  long count(int side, int depth) {
+    if (depth == 0) {
+      return 1;
+    }
+    int[] moves = buffer(depth);
+    int n = state.generateMoves(side, moves);
+    if (depth == 1) {
+      return n;
+    }
+    long leaves = 0;
+    for (int i = 0; i < n; i++) {
+      state.applyUnchecked(moves[i], side);
+      leaves += count(GameState.opponent(side), depth - 1);
+      state.undo();
+    }
+    return leaves;
+  }
+
+  /**
+   * reference() counts the leaves of the validMoves() tree, and checks
+   * every node against generateMoves().
+   * @param side is the side to move
+   * @param depth is the number of plies to go down
+   * @return {leaves over unique moves, leaves over moves as listed}
+   **/
+  long[] reference(int side, int depth) {
+    if (depth == 0) {
+      return new long[] {1, 1};
+    }
+    int[] moves = buffer(depth);
+    int n = uniqueValidMoves(side, moves);
+    int[] times = new int[n];
+    for (int i = 0; i < n; i++) {
+      times[i] = listed[moves[i]];
+    }
+    long[] leaves = new long[2];
+    for (int i = 0; i < n; i++) {
+      state.applyUnchecked(moves[i], side);
+      long[] below = reference(GameState.opponent(side), depth - 1);
+      state.undo();
+      leaves[0] += below[0];
+      leaves[1] += times[i] * below[1];
+    }
+    return leaves;
+  }
+
+  /**
+   * uniqueValidMoves() writes the moves of validMoves() into 'moves', each
+   * once, and leaves in 'listed' how many times each was listed.  It counts
+   * a mismatch if they are not the moves of generateMoves().
+   * @return the number of unique moves
+   **/
+  private int uniqueValidMoves(int side, int[] moves) {
+    stamp++;
+    int n = 0;
+    for (SListNode node = state.validMoves(side).front(); node != null; node = node.next) {
+      int m = PackedMove.pack((Move) node.item);
+      if (seen[m] != stamp) {
+	seen[m] = stamp;
+	listed[m] = 0;
+	moves[n++] = m;
+      }
+      listed[m]++;
+    }
+    int[] generated = new int[GameState.MAXMOVES];
+    int count = state.generateMoves(side, generated);
+    boolean same = count == n;
+    for (int i = 0; i < count && same; i++) {
+      same = seen[generated[i]] == stamp;
+    }
+    if (!same) {
+      mismatches++;
+    }
+    return n;
+  }
+
+  //returns the move buffer of the node 'depth' plies above the leaves
+  private int[] buffer(int depth) {
+    if (depth >= buffers.length) {
+      int[][] longer = new int[2 * depth][];
+      System.arraycopy(buffers, 0, longer, 0, buffers.length);
+      buffers = longer;
+    }
+    if (buffers[depth] == null) {
+      buffers[depth] = new int[GameState.MAXMOVES];
+    }
+    return buffers[depth];
+  }
+
+  /**
+   * searchRootMoves() takes root moves one at a time from 'next' and counts
+   * the leaves below each; run by every thread of a parallel perft.
+   * @param moves are the root moves
+   * @param side is the side to move at the root
+   * @param depth is the depth of the whole tree, at least 1
+   * @param check is true to walk the validMoves() tree instead of the
+   * generateMoves() one
+   * @param results receives, for root move i, count() in results[3 * i], or
+   * with 'check' reference()[0] and reference()[1] in results[3 * i + 1]
+   * and results[3 * i + 2]
+   **/
+  void searchRootMoves(int[] moves, int side, int depth, boolean check,
+		       long[] results, AtomicInteger next) {
+    for (int i = next.getAndIncrement(); i < moves.length; i = next.getAndIncrement()) {
+      state.applyUnchecked(moves[i], side);
+      if (check) {
+	long[] leaves = reference(GameState.opponent(side), depth - 1);
+	results[3 * i + 1] = leaves[0];
+	results[3 * i + 2] = leaves[1];
+      } else {
+	results[3 * i] = count(GameState.opponent(side), depth - 1);
+      }
+      state.undo();
+    }
+  }
+
+  /**
+   * run() has 'workers' count the leaves below every root move, in 'pool'
+   * if there is one, and times them.
+   * @param check is true to walk the validMoves() tree instead of the
+   * generateMoves() one
+   * @param results receives the counts, as in searchRootMoves()
+   * @return the time taken, in nanoseconds
+   **/
+  static long run(ForkJoinPool pool, Perft[] workers, int[] moves, int side, int depth,
+		  boolean check, long[] results) {
+    long start = System.nanoTime();
+    AtomicInteger next = new AtomicInteger();
+    if (pool != null) {
+      ForkJoinTask<?>[] running = new ForkJoinTask<?>[workers.length];
+      for (int i = 0; i < workers.length; i++) {
+	running[i] = pool.submit(new PerftTask(workers[i], moves, side, depth, check,
+					       results, next));
+      }
+      for (int i = 0; i < workers.length; i++) {
+	running[i].join();
+      }
+    } else {
+      workers[0].searchRootMoves(moves, side, depth, check, results, next);
+    }
+    return Math.max(1, System.nanoTime() - start);
+  }
+
+  public static void main(String[] args) {
+    if (args.length < 1) {
+      System.out.println("usage: java player.Perft depth [-threads n] [-position k] [-check]");
+      return;
+    }
+    int maxDepth = Integer.parseInt(args[0]);
+    int threads = 1;
+    boolean check = false;
+    GameState root = new GameState();
+    for (int i = 1; i < args.length; i++) {
+      if (args[i].equals("-threads")) {
+	threads = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-position")) {
+	root = Positions.standard()[Integer.parseInt(args[++i])];
+      } else if (args[i].equals("-check")) {
+	check = true;
+      }
+    }
+    int side = root.sideToMove;
+    ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+    Perft[] workers = new Perft[threads];
+    for (int i = 0; i < threads; i++) {
+      workers[i] = new Perft(root);
+    }
+    int[] buffer = new int[GameState.MAXMOVES];
+    int n = root.generateMoves(side, buffer);
+    int[] moves = new int[n];
+    System.arraycopy(buffer, 0, moves, 0, n);
+    int[] times = new int[MOVEKEYS];  // times validMoves() lists each root move
+    long rootMismatches = 0;
+    if (check) {
+      int distinct = 0;
+      for (SListNode node = root.validMoves(side).front(); node != null; node = node.next) {
+	if (times[PackedMove.pack((Move) node.item)]++ == 0) {
+	  distinct++;
+	}
+      }
+      for (int i = 0; i < n; i++) {
+	if (times[moves[i]] == 0) {
+	  distinct = -1;
+	}
+      }
+      rootMismatches = distinct == n ? 0 : 1;
+    }
+    System.out.println(root);
+    for (int depth = 1; depth <= maxDepth; depth++) {
+      long[] results = new long[3 * n];
+      long nanos = run(pool, workers, moves, side, depth, false, results);
+      long checkNanos = check ? run(pool, workers, moves, side, depth, true, results) : 0;
+      long leaves = 0;
+      long unique = 0;
+      long all = 0;
+      for (int i = 0; i < n; i++) {
+	leaves += results[3 * i];
+	unique += results[3 * i + 1];
+	all += times[moves[i]] * results[3 * i + 2];
+      }
+      String line = "depth " + depth + ": " + leaves + " leaves in " + nanos / 1000000
+	+ " ms, " + Math.round(leaves * 1e9 / nanos) + " nodes/s";
+      if (check) {
+	long mismatches = rootMismatches;
+	for (int i = 0; i < threads; i++) {
+	  mismatches += workers[i].mismatches;
+	  workers[i].mismatches = 0;
+	}
+	line += "; validMoves(): " + unique + " unique, " + all + " as listed ("
+	  + (all - unique) + " from duplicate step moves), "
+	  + (unique == leaves && mismatches == 0 ? "same" : "MISMATCH")
+	  + " as generateMoves(), checked in " + checkNanos / 1000000 + " ms";
+      }
+      System.out.println(line);
+    }
+    if (pool != null) {
+      pool.shutdown();
+    }
+  }
+}
@@ -0,0 +1,40 @@
+/* PerftTask.java */
+
+package player;
+
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *  A fork/join task that runs one worker of a parallel perft: the worker
+ *  takes root moves one at a time from a counter shared by all the workers
+ *  and counts the leaves below them on its own copy of the position, until
+ *  there are none left.  Perft starts one task per thread.
+ */
+class PerftTask extends RecursiveAction {
+
+  private static final long serialVersionUID = 1L;
+
+  private Perft worker;        // the counter that runs this task
+  private int[] moves;         // the root moves
+  private int side;            // the side to move at the root
+  private int depth;           // the depth of the whole tree
+  private boolean check;       // true to walk the validMoves() tree as well
+  private long[] results;      // three counts per root move, see Perft.searchRootMoves()
+  private AtomicInteger next;  // index of the next root move to count
+
+  PerftTask(Perft worker, int[] moves, int side, int depth, boolean check,
+	    long[] results, AtomicInteger next) {
+    this.worker = worker;
+    this.moves = moves;
+    this.side = side;
+    this.depth = depth;
+    this.check = check;
+    this.results = results;
+    this.next = next;
+  }
+
+  protected void compute() {
+    worker.searchRootMoves(moves, side, depth, check, results, next);
+  }
+}
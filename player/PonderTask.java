@@ -0,0 +1,25 @@
+/* PonderTask.java */
+
+package player;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ *  A fork/join task that runs the ponder search of MachinePlayer: a search
+ *  of the position after its own move, on the opponent's time, until it is
+ *  stopped or reaches its last iteration.
+ */
+class PonderTask extends RecursiveAction {
+
+  private static final long serialVersionUID = 1L;
+
+  private MachinePlayer ponderer;
+
+  PonderTask(MachinePlayer ponderer) {
+    this.ponderer = ponderer;
+  }
+
+  protected void compute() {
+    ponderer.ponderSearch();
+  }
+}
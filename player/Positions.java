@@ -0,0 +1,99 @@
+/* Positions.java */
+
+package player;
+
+import java.util.Random;
+
+/**
+ *  Positions builds a fixed set of game positions for benchmarks and checks.
+ *  Each position is reached by playing random valid moves from the empty
+ *  board with a seeded generator, so the set is the same on every run.
+ *  Games that end in a network before reaching their length are played
+ *  again.  Every second position is in the step phase (both sides have all
+ *  ten chips on the board), the others are in the add phase.
+ */
+public class Positions {
+
+  static final long SEED = 1729;       // seed of the standard set
+  static final int DEFAULTCOUNT = 200; // size of the standard set
+  static final int STEPPLIES = 20;     // plies played before the step phase starts
+  static final int MAXPLIES = 60;      // longest game played to reach a position
+
+  /**
+   * standard() returns the standard set of DEFAULTCOUNT positions.
+   * @return an array of new GameStates
+   **/
+  public static GameState[] standard() {
+    return corpus(DEFAULTCOUNT, SEED);
+  }
+
+  /**
+   * corpus() builds 'count' positions from random games.
+   * @param count is the number of positions
+   * @param seed seeds the random moves
+   * @return an array of new GameStates, each with its side to move set
+   **/
+  public static GameState[] corpus(int count, long seed) {
+    Random random = new Random(seed);
+    GameState[] positions = new GameState[count];
+    int[] moves = new int[GameState.MAXMOVES];
+    for (int k = 0; k < count; k++) {
+      int plies;
+      if (k % 2 == 0) {
+	plies = 2 + random.nextInt(STEPPLIES - 2);
+      } else {
+	plies = STEPPLIES + random.nextInt(MAXPLIES - STEPPLIES + 1);
+      }
+      GameState state = null;
+      while (state == null) {
+	state = play(plies, random, moves);
+      }
+      positions[k] = state;
+    }
+    return positions;
+  }
+
+  /**
+   * range() builds 'count' positions from random games of 'minPlies' to
+   * 'maxPlies' plies, to get positions from one part of the game.
+   * @param count is the number of positions
+   * @param seed seeds the random moves
+   * @param minPlies is the shortest game played
+   * @param maxPlies is the longest game played
+   * @return an array of new GameStates, each with its side to move set
+   **/
+  public static GameState[] range(int count, long seed, int minPlies, int maxPlies) {
+    Random random = new Random(seed);
+    GameState[] positions = new GameState[count];
+    int[] moves = new int[GameState.MAXMOVES];
+    for (int k = 0; k < count; k++) {
+      int plies = minPlies + random.nextInt(maxPlies - minPlies + 1);
+      GameState state = null;
+      while (state == null) {
+	state = play(plies, random, moves);
+      }
+      positions[k] = state;
+    }
+    return positions;
+  }
+
+  //plays 'plies' random moves from the empty board, WHITE first; returns
+  //null if either side completes a network on the way
+  private static GameState play(int plies, Random random, int[] moves) {
+    GameState state = new GameState();
+    int side = GameState.WHITE;
+    for (int ply = 0; ply < plies; ply++) {
+      int n = state.generateMoves(side, moves);
+      if (n == 0) {
+	return null;
+      }
+      state.move(moves[random.nextInt(n)], side);
+      if (state.hasValidNetwork(GameState.BLACK)
+	  || state.hasValidNetwork(GameState.WHITE)) {
+	return null;
+      }
+      side = GameState.opponent(side);
+    }
+    return state;
+  }
+}
@@ -0,0 +1,63 @@
+/* ProofNode.java */
+
+package player;
+
+/**
+ *  A node of the proof-number search tree built by ProofNumberSearch.  An OR
+ *  node is a position in which the attacker is to move; an AND node is one
+ *  in which the defender is to move.  The proof number of a node is the
+ *  least number of leaves that must still be proven to prove that the
+ *  attacker forces a network from it; the disproof number is the least
+ *  number that must be disproven to show that it cannot.
+ */
+class ProofNode {
+  protected int move;            // packed move that leads here from the parent
+  protected boolean or;          // true if the attacker is to move
+  protected int plies;           // plies left in which the attacker must win
+  protected int proof = 1;
+  protected int disproof = 1;
+  protected ProofNode[] children;  // null until the node is expanded
+
+  ProofNode(int move, boolean or, int plies) {
+    this.move = move;
+    this.or = or;
+    this.plies = plies;
+  }
+
+  //marks this node as proven: the attacker forces a network from it
+  void prove() {
+    proof = 0;
+    disproof = ProofNumberSearch.INFINITY;
+  }
+
+  //marks this node as disproven: the attacker cannot force a network from it
+  void disprove() {
+    proof = ProofNumberSearch.INFINITY;
+    disproof = 0;
+  }
+
+  /**
+   * update() recomputes the proof and disproof numbers of an expanded node
+   * from those of its children.  Leaves keep theirs.
+   **/
+  void update() {
+    if (children == null || children.length == 0) {
+      return;  // a leaf, or solved when it was expanded
+    }
+    int min = ProofNumberSearch.INFINITY;
+    int sum = 0;
+    for (ProofNode child : children) {
+      int minOf = or ? child.proof : child.disproof;
+      int sumOf = or ? child.disproof : child.proof;
+      min = Math.min(min, minOf);
+      sum = Math.min(ProofNumberSearch.INFINITY, sum + sumOf);
+    }
+    if (or) {
+      proof = min;
+      disproof = sum;
+    } else {
+      proof = sum;
+      disproof = min;
+    }
+  }
+}
@@ -0,0 +1,233 @@
+/* ProofNumberSearch.java */
+
+package player;
+
+/**
+ *  A proof-number search that proves or disproves "the attacker can force a
+ *  network within N plies" in a GameState.  It only looks at forcing play:
+ *  the attacker's moves are those that complete a network or leave a
+ *  threat (a move that would complete one next turn), and the defender's
+ *  moves are those that leave the attacker no network-completing move.
+ *  A defender move that lets the attacker complete a network is a loss,
+ *  and is not searched further.  A move that completes the opponent's
+ *  network, alone or together with the mover's own, loses for the mover.
+ *
+ *  The tree is kept in memory as ProofNodes.  Every move the search applies,
+ *  including those tried while looking for threats, counts against a node
+ *  budget.  The search stops when the root is solved, the budget is spent
+ *  or the deadline has passed; the clock is read every CLOCKINTERVAL moves.
+ */
+public class ProofNumberSearch {
+
+  static final int INFINITY = Integer.MAX_VALUE / 2;
+  static final int CLOCKINTERVAL = 256;  // moves between two looks at the clock
+
+  private GameState state;  // the position being solved, restored after solve()
+  private int attacker;
+  private int defender;
+  private long budget;      // the most moves the search may apply
+  private long deadline;    // time at which the search must stop
+  private long clockMoves;  // value of 'visited' when the clock was last read
+  protected long visited;   // moves applied by the last solve()
+  private int[][] buffers = new int[MoveOrdering.MAXPLY][];  // move list of each ply
+  private int[] scan = new int[GameState.MAXMOVES];  // move list of GameState.winningMove()
+
+  /**
+   * solve() looks for a forced network for 'side' within 'plies' plies,
+   * counting the move it returns.  The state is left as it was found.
+   * @param state is the position, with 'side' to move
+   * @param side is the attacker (BLACK or WHITE)
+   * @param plies is the number of plies in which to win, counting both sides
+   * @param budget is the most moves the search may apply
+   * @return the packed first move of a proven win, or PackedMove.NONE if
+   * none was proven within the budget
+   **/
+  public int solve(GameState state, int side, int plies, long budget) {
+    return solve(state, side, plies, budget, Long.MAX_VALUE);
+  }
+
+  /**
+   * solve() looks for a forced network as above, but also gives up when
+   * the clock reaches 'deadline'.
+   * @param deadline is the time, in milliseconds as System.currentTimeMillis()
+   * counts them, at which the search must stop
+   **/
+  public int solve(GameState state, int side, int plies, long budget, long deadline) {
+    this.state = state;
+    attacker = side;
+    defender = GameState.opponent(side);
+    this.budget = budget;
+    this.deadline = deadline;
+    visited = 0;
+    clockMoves = 0;
+    ProofNode root = new ProofNode(PackedMove.NONE, true, plies);
+    ProofNode[] path = new ProofNode[plies + 1];
+    while (root.proof != 0 && root.disproof != 0 && !spent()) {
+      // select the most proving node, playing the moves that lead to it
+      int ply = 0;
+      ProofNode node = root;
+      path[0] = root;
+      while (node.children != null && node.children.length > 0) {
+	node = mostProving(node);
+	state.applyUnchecked(node.move, node.or ? defender : attacker);
+	path[++ply] = node;
+      }
+      expand(node, ply);
+      for (int i = ply; i >= 0; i--) {
+	path[i].update();
+	if (i > 0) {
+	  state.undo();
+	}
+      }
+    }
+    this.state = null;
+    if (root.proof != 0) {
+      return PackedMove.NONE;
+    }
+    for (ProofNode child : root.children) {
+      if (child.proof == 0) {
+	return child.move;
+      }
+    }
+    return PackedMove.NONE;
+  }
+
+  //returns the child of 'node' that the search should look at next
+  private static ProofNode mostProving(ProofNode node) {
+    ProofNode best = node.children[0];
+    for (ProofNode child : node.children) {
+      if (node.or ? child.proof < best.proof : child.disproof < best.disproof) {
+	best = child;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * expand() generates the children of a leaf, the current position, and
+   * sets their proof and disproof numbers, or solves the leaf outright.
+   * If the budget runs out first, the leaf is left as it was.
+   * @param node is the leaf
+   * @param ply is its depth in the tree, to pick a move buffer
+   **/
+  private void expand(ProofNode node, int ply) {
+    int[] moves = buffer(ply);
+    ProofNode[] children = new ProofNode[GameState.MAXMOVES];
+    int count = 0;
+    if (node.or) {
+      int n = state.generateMoves(attacker, moves);
+      for (int i = 0; i < n; i++) {
+	state.applyUnchecked(moves[i], attacker);
+	visited++;
+	int result = result(attacker);
+	if (result > 0) {
+	  state.undo();
+	  ProofNode win = new ProofNode(moves[i], false, node.plies - 1);
+	  win.prove();
+	  node.children = new ProofNode[] {win};
+	  node.prove();
+	  return;
+	}
+	// a threat needs a defender reply and an attacker move after it
+	if (result == 0 && node.plies >= 3 && winningMove(attacker) != PackedMove.NONE) {
+	  children[count++] = new ProofNode(moves[i], false, node.plies - 1);
+	}
+	state.undo();
+	if (spent()) {
+	  return;  // left unexpanded: a partial list of children proves nothing
+	}
+      }
+      if (count == 0) {
+	node.children = new ProofNode[0];
+	node.disprove();
+	return;
+      }
+    } else {
+      int n = state.generateMoves(defender, moves);
+      for (int i = 0; i < n; i++) {
+	state.applyUnchecked(moves[i], defender);
+	visited++;
+	int result = result(defender);
+	if (result > 0) {
+	  state.undo();
+	  node.children = new ProofNode[0];
+	  node.disprove();  // the defender completes a network first
+	  return;
+	}
+	if (result == 0 && winningMove(attacker) == PackedMove.NONE) {
+	  ProofNode child = new ProofNode(moves[i], true, node.plies - 1);
+	  if (child.plies < 3) {
+	    child.disprove();  // no time left to make and carry out a new threat
+	  }
+	  children[count++] = child;
+	}
+	state.undo();
+	if (spent()) {
+	  return;
+	}
+      }
+      if (count == 0) {
+	node.children = new ProofNode[0];
+	node.prove();  // every reply loses
+	return;
+      }
+    }
+    node.children = new ProofNode[count];
+    System.arraycopy(children, 0, node.children, 0, count);
+  }
+
+  /**
+   * result() tells who won by the move just made by 'mover'.
+   * @return 1 if 'mover' completed a network and its opponent did not, -1 if
+   * the opponent has a network (the mover loses, even if both do), 0 if
+   * neither has one
+   **/
+  private int result(int mover) {
+    if (state.hasValidNetwork(GameState.opponent(mover))) {
+      return -1;
+    }
+    return state.hasValidNetwork(mover) ? 1 : 0;
+  }
+
+  /**
+   * winningMove() looks for a move by 'side' that wins at once in the
+   * current position with GameState.winningMove(), counting the moves it
+   * tries against the budget.
+   * @return the packed move, or PackedMove.NONE if there is none
+   **/
+  private int winningMove(int side) {
+    long tries = state.winningTries;
+    int m = state.winningMove(side, scan);
+    visited += state.winningTries - tries;
+    return m;
+  }
+
+  /**
+   * spent() tells whether the search must stop: the budget is spent, or
+   * the deadline has passed, in which case the budget is cut to what was
+   * used so that the search stops for good.
+   * @return true if no more moves may be applied
+   **/
+  private boolean spent() {
+    if (visited - clockMoves >= CLOCKINTERVAL) {
+      clockMoves = visited;
+      if (System.currentTimeMillis() >= deadline) {
+	budget = visited;
+      }
+    }
+    return visited >= budget;
+  }
+
+  //returns the move buffer of ply 'ply'
+  private int[] buffer(int ply) {
+    if (ply >= buffers.length) {
+      int[][] longer = new int[2 * ply][];
+      System.arraycopy(buffers, 0, longer, 0, buffers.length);
+      buffers = longer;
+    }
+    if (buffers[ply] == null) {
+      buffers[ply] = new int[GameState.MAXMOVES];
+    }
+    return buffers[ply];
+  }
+}
@@ -0,0 +1,36 @@
+/* RootSplitTask.java */
+
+package player;
+
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *  A fork/join task that runs one helper of MachinePlayer.splitRoot(): the
+ *  helper takes root moves one at a time from a counter shared by all the
+ *  helpers and searches them on its own copy of the game, until there are
+ *  none left.  splitRoot() starts one task per helper thread.
+ */
+class RootSplitTask extends RecursiveAction {
+
+  private static final long serialVersionUID = 1L;
+
+  private MachinePlayer helper;   // the helper that runs this task
+  private MachinePlayer parent;   // the player whose root is being searched
+  private int[] moves;            // the ordered packed root moves
+  private int n;                  // the number of root moves
+  private AtomicInteger next;     // index of the next root move to search
+
+  RootSplitTask(MachinePlayer helper, MachinePlayer parent, int[] moves, int n,
+		AtomicInteger next) {
+    this.helper = helper;
+    this.parent = parent;
+    this.moves = moves;
+    this.n = n;
+    this.next = next;
+  }
+
+  protected void compute() {
+    helper.searchRootMoves(moves, n, next, parent);
+  }
+}
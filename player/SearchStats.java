@@ -0,0 +1,126 @@
+/* SearchStats.java */
+
+package player;
+
+/**
+ *  SearchStats holds what one chooseMove() did: how many nodes it searched
+ *  and evaluated, how often it looked for networks, where its beta cutoffs
+ *  came from, how deep it went and how long each phase took.
+ *
+ *  Every search thread counts into a SearchStats of its own, in plain
+ *  fields, so counting costs no more than an increment and nothing is
+ *  shared between threads.  When a parallel search is over the counts of
+ *  the helpers are added into those of the player with add().
+ */
+public class SearchStats {
+
+  static final int CUTOFFSLOTS = 8;  // cutoffs by moves at index 7 and later are counted together
+
+  long nodes;          // positions searched by maxval(), minval(), pvs() and quiesce(), each once
+  long quiesceNodes;   // ... of which searched by quiesce(), horizon nodes included
+  long standPats;      // quiesce() calls that returned the static evaluation without searching
+  long evaluations;    // leaf scores asked of the evaluation cache
+  long networkTests;   // GameState.hasValidNetwork() calls, by the solver and the search
+  long cacheProbes;    // evaluation cache lookups, evaluations and network tests alike
+  long cacheHits;      // ... of which found what they needed in the cache
+  long[] cutoffs = new long[CUTOFFSLOTS];  // beta cutoffs of the main search, by index of the move
+  int depth;           // plies of the deepest search that finished
+  int maxPly;          // depth of the deepest node visited, quiescence included
+  long solverMoves;    // moves applied by the proof-number solver
+  long bookNanos;      // time spent looking up the opening book
+  long solverNanos;    // time spent in the solver
+  long searchNanos;    // time spent searching
+
+  //counts a node at depth 'ply' of the search tree
+  void node(int ply) {
+    nodes++;
+    if (ply > maxPly) {
+      maxPly = ply;
+    }
+  }
+
+  //counts a beta cutoff by the move at index 'index' of its node
+  void cutoff(int index) {
+    cutoffs[index < CUTOFFSLOTS ? index : CUTOFFSLOTS - 1]++;
+  }
+
+  /**
+   * add() adds the counts of a helper thread to these.  The depth and the
+   * times are those of the player, and are left alone.
+   * @param other holds the counts of the helper
+   **/
+  void add(SearchStats other) {
+    nodes += other.nodes;
+    quiesceNodes += other.quiesceNodes;
+    standPats += other.standPats;
+    evaluations += other.evaluations;
+    networkTests += other.networkTests;
+    cacheProbes += other.cacheProbes;
+    cacheHits += other.cacheHits;
+    for (int i = 0; i < CUTOFFSLOTS; i++) {
+      cutoffs[i] += other.cutoffs[i];
+    }
+    maxPly = Math.max(maxPly, other.maxPly);
+    solverMoves += other.solverMoves;
+  }
+
+  /**
+   * nodesPerSecond() returns the search speed, over all threads.
+   * @return the nodes searched per second of search time, or 0 if there
+   * was no search
+   **/
+  public double nodesPerSecond() {
+    if (searchNanos == 0) {
+      return 0;
+    }
+    return nodes * 1e9 / searchNanos;
+  }
+
+  /**
+   * failHighFirstRate() returns the fraction of the beta cutoffs that were
+   * caused by the first move searched, which tells how good the move
+   * ordering is.
+   * @return a number between 0 and 1, or 0 if there were no cutoffs
+   **/
+  public double failHighFirstRate() {
+    long total = 0;
+    for (int i = 0; i < CUTOFFSLOTS; i++) {
+      total += cutoffs[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    return (double) cutoffs[0] / total;
+  }
+
+  /**
+   * cacheHitRate() returns the fraction of the evaluation cache lookups
+   * that were answered by the cache, over all threads.
+   * @return a number between 0 and 1, or 0 if there were no lookups
+   **/
+  public double cacheHitRate() {
+    if (cacheProbes == 0) {
+      return 0;
+    }
+    return (double) cacheHits / cacheProbes;
+  }
+
+  /**
+   * toString() returns the counts on one line.
+   * @return a String of the form "nodes=... eval=... ..."
+   **/
+  public String toString() {
+    String ret = "nodes=" + nodes + " qnodes=" + quiesceNodes + " standpat=" + standPats
+      + " eval=" + evaluations + " networks=" + networkTests
+      + " cachehits=" + cacheHits + "/" + cacheProbes + " depth=" + depth
+      + " maxply=" + maxPly + " cutoffs=";
+    for (int i = 0; i < CUTOFFSLOTS; i++) {
+      ret += (i == 0 ? "" : "/") + cutoffs[i];
+    }
+    ret += " fhf=" + Math.round(failHighFirstRate() * 1000) / 1000.0;
+    ret += " solver=" + solverMoves + " bookms=" + bookNanos / 1e6 + " solverms="
+      + solverNanos / 1e6 + " searchms=" + searchNanos / 1e6
+      + " nps=" + Math.round(nodesPerSecond());
+    return ret;
+  }
+}
@@ -0,0 +1,450 @@
+/* SelfCheck.java */
+
+package player;
+
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ *  SelfCheck runs consistency checks and reports over the Positions set.
+ *  Run it with "java player.SelfCheck".  Every check prints a summary line;
+ *  a line starting with MISMATCH means a check failed.
+ */
+public class SelfCheck {
+
+  public static void main(String[] args) {
+    GameState[] positions = Positions.standard();
+    stepDuplicates(positions);
+    networks(positions, 20000, 1L);
+    features(positions);
+    leaves(positions);
+    incremental(positions, 1L);
+    generators(positions);
+    threats(positions);
+    moveKinds(positions);
+  }
+
+  /**
+   * stepDuplicates() compares validMoves() with generateMoves() on every
+   * position: both must list the same set of moves, and generateMoves() must
+   * list each of them once.  It reports how many duplicate step moves
+   * generateMoves() saves the search.
+   * @param positions are the positions to check
+   **/
+  static void stepDuplicates(GameState[] positions) {
+    int[] buffer = new int[GameState.MAXMOVES];
+    int stepPositions = 0;
+    long listed = 0;
+    long unique = 0;
+    for (int k = 0; k < positions.length; k++) {
+      GameState state = positions[k];
+      int side = state.sideToMove;
+      HashSet<Integer> old = new HashSet<Integer>();
+      int oldCount = 0;
+      for (SListNode node = state.validMoves(side).front(); node != null; node = node.next) {
+	old.add(PackedMove.pack((Move) node.item));
+	oldCount++;
+      }
+      int n = state.generateMoves(side, buffer);
+      HashSet<Integer> generated = new HashSet<Integer>();
+      for (int i = 0; i < n; i++) {
+	generated.add(buffer[i]);
+      }
+      if (generated.size() != n || !generated.equals(old)) {
+	System.out.println("MISMATCH in moves of position " + k + ": "
+			   + old.size() + " valid, " + n + " generated");
+      }
+      if ((side == GameState.BLACK ? state.blackCount : state.whiteCount) == 10) {
+	stepPositions++;
+	listed += oldCount;
+	unique += n;
+      }
+    }
+    System.out.println("step moves: " + stepPositions + " positions, "
+		       + listed + " listed by validMoves(), " + unique
+		       + " unique, " + (listed - unique) + " duplicates removed ("
+		       + (listed == 0 ? 0 : 100 * (listed - unique) / listed) + "%)");
+  }
+
+  /**
+   * networks() checks that hasValidNetwork() agrees with the original
+   * hasValidNetworkByPaths() for both sides, on every position and on
+   * 'boards' random boards, and reports the time each of them takes.
+   * The random boards put chips on squares each side may use, ignoring the
+   * cluster rule, with densities from sparse to nearly full, so that many
+   * of them hold networks.
+   * @param positions are game positions to check
+   * @param boards is the number of random boards to check
+   * @param seed seeds the random boards
+   **/
+  static void networks(GameState[] positions, int boards, long seed) {
+    Random random = new Random(seed);
+    GameState[] states = new GameState[positions.length + boards];
+    System.arraycopy(positions, 0, states, 0, positions.length);
+    for (int k = positions.length; k < states.length; k++) {
+      GameState state = new GameState();
+      int density = 10 + random.nextInt(60);  // percent of open squares used
+      for (int x = 0; x < GameState.BOARDLENGTH; x++) {
+	for (int y = 0; y < GameState.BOARDLENGTH; y++) {
+	  if (random.nextInt(100) >= density) {
+	    continue;
+	  }
+	  int side = random.nextBoolean() ? GameState.BLACK : GameState.WHITE;
+	  if (!state.wrongGoal(x, y, side)) {
+	    state.setSquare(x, y, GameState.EMPTY, side);
+	  }
+	}
+      }
+      states[k] = state;
+    }
+    int networks = 0;
+    int mismatches = 0;
+    long fast = 0;
+    long slow = 0;
+    for (int k = 0; k < states.length; k++) {
+      for (int c = 0; c < 2; c++) {
+	int side = c == 0 ? GameState.BLACK : GameState.WHITE;
+	long t0 = System.nanoTime();
+	boolean found = states[k].hasValidNetwork(side);
+	long t1 = System.nanoTime();
+	boolean expected = states[k].hasValidNetworkByPaths(side);
+	long t2 = System.nanoTime();
+	fast += t1 - t0;
+	slow += t2 - t1;
+	if (expected) {
+	  networks++;
+	}
+	if (found != expected) {
+	  mismatches++;
+	  System.out.println("MISMATCH in network of " + side + " on board\n" + states[k]);
+	}
+      }
+    }
+    int calls = 2 * states.length;
+    System.out.println("networks: " + calls + " checks, " + networks + " networks, "
+		       + mismatches + " mismatches; " + (fast / calls) + " ns per call, "
+		       + (slow / calls) + " ns by paths");
+  }
+
+  /**
+   * features() compares networkFeatures() with the exhaustive features() on
+   * every position, for both sides and both goal areas.  It reports how
+   * often the longest path is the same, and the time each of them takes.
+   * @param positions are the positions to check
+   **/
+  static void features(GameState[] positions) {
+    int calls = 0;
+    int sameLength = 0;
+    long fast = 0;
+    long slow = 0;
+    long fastest = 0;
+    long slowest = 0;
+    for (int pass = 0; pass < 2; pass++) { // the first pass warms up the compiler
+      calls = 0;
+      sameLength = 0;
+      fast = 0;
+      slow = 0;
+      fastest = 0;
+      slowest = 0;
+      for (int k = 0; k < positions.length; k++) {
+	GameState state = positions[k];
+	for (int c = 0; c < 4; c++) {
+	  int side = c < 2 ? GameState.BLACK : GameState.WHITE;
+	  boolean starting = (c & 1) == 0;
+	  long t0 = System.nanoTime();
+	  double[] found = state.networkFeatures(side, starting, GameState.FEATUREBUDGET);
+	  long t1 = System.nanoTime();
+	  double[] expected = state.features(side, starting ? state.startingNodes(side)
+					     : state.endingNodes(side), starting);
+	  long t2 = System.nanoTime();
+	  fast += t1 - t0;
+	  slow += t2 - t1;
+	  fastest = Math.max(fastest, t1 - t0);
+	  slowest = Math.max(slowest, t2 - t1);
+	  calls++;
+	  if ((found == null) != (expected == null)) {
+	    System.out.println("MISMATCH in network found by features of position " + k);
+	  } else if (found == null || found[GameState.MAXLENGTH] == expected[GameState.MAXLENGTH]) {
+	    sameLength++;
+	  }
+	}
+      }
+    }
+    System.out.println("features: " + calls + " calls, longest path the same in "
+		       + sameLength + "; " + (fast / calls) + " ns per call (at most "
+		       + fastest + "), " + (slow / calls) + " ns exhaustive (at most "
+		       + slowest + ")");
+  }
+
+  /**
+   * leaves() checks that evaluation() gives the same score as testing both
+   * sides for networks with hasValidNetwork() and then adding up the four
+   * networkFeatures() the way evaluation() weighs them.  Both use the same
+   * network graph, so only the scores are compared; Benchmark times
+   * evaluation().
+   * @param positions are the positions to check
+   **/
+  static void leaves(GameState[] positions) {
+    int mismatches = 0;
+    for (int k = 0; k < positions.length; k++) {
+      int side = positions[k].sideToMove;
+      double found = positions[k].evaluation(side);
+      double expected = separateEvaluation(positions[k], side);
+      if (found != expected) {
+	mismatches++;
+	System.out.println("MISMATCH in evaluation of position " + k + ": "
+			   + found + " instead of " + expected);
+      }
+    }
+    System.out.println("leaves: " + positions.length + " positions, " + mismatches
+		       + " mismatches");
+  }
+
+  //evaluation() computed from separate network tests and features
+  private static double separateEvaluation(GameState state, int side) {
+    int enemy = GameState.opponent(side);
+    if (state.hasValidNetwork(side)) {
+      return GameState.EVALMAX;
+    }
+    if (state.hasValidNetwork(enemy)) {
+      return GameState.EVALMIN;
+    }
+    double[][] f = {
+      state.networkFeatures(side, true, GameState.FEATUREBUDGET),
+      state.networkFeatures(side, false, GameState.FEATUREBUDGET),
+      state.networkFeatures(enemy, true, GameState.FEATUREBUDGET),
+      state.networkFeatures(enemy, false, GameState.FEATUREBUDGET) };
+    double ret = 0;
+    for (int i = 0; i < GameState.FEATUREWEIGHTS.length; i++) {
+      ret += (f[0][i] + f[1][i] - f[2][i] - f[3][i]) * GameState.FEATUREWEIGHTS[i];
+    }
+    if (ret <= GameState.EVALMIN) {
+      ret = GameState.EVALMIN + 1;
+    } else if (ret >= GameState.EVALMAX) {
+      ret = GameState.EVALMAX - 1;
+    }
+    return ret;
+  }
+
+  /**
+   * incremental() checks that the legal ADD masks and the network graph
+   * kept up to date by GameState match ones computed from scratch, on every
+   * position and after every move of random games played from it with
+   * applyUnchecked(), undo(), move() and unmove().
+   * @param positions are the positions to start from
+   * @param seed seeds the random games
+   **/
+  static void incremental(GameState[] positions, long seed) {
+    Random random = new Random(seed);
+    int[] buffer = new int[GameState.MAXMOVES];
+    int checks = 0;
+    int mismatches = 0;
+    for (int k = 0; k < positions.length; k++) {
+      GameState state = new GameState(positions[k]);
+      int[] played = new int[8];
+      int applied = 0;
+      for (int ply = 0; ply <= played.length; ply++) {
+	checks++;
+	if (state.legalAdds[0] != state.computeLegalAdds(GameState.BLACK)
+	    || state.legalAdds[1] != state.computeLegalAdds(GameState.WHITE)
+	    || !sameGraph(state, new GameState(state))) {
+	  mismatches++;
+	  System.out.println("MISMATCH in incremental state of position " + k + " after " + ply + " moves");
+	}
+	if (ply == played.length) {
+	  break;
+	}
+	int side = state.sideToMove;
+	int n = state.generateMoves(side, buffer);
+	if (n == 0) {
+	  break;
+	}
+	played[ply] = buffer[random.nextInt(n)];
+	if (ply % 2 == 0) {
+	  state.applyUnchecked(played[ply], side);
+	} else {
+	  state.move(played[ply], side);
+	  state.unmove(played[ply], side);
+	  state.applyUnchecked(played[ply], side);
+	}
+	applied++;
+      }
+      for (; applied > 0; applied--) {
+	state.undo();
+      }
+      checks++;
+      if (state.legalAdds[0] != positions[k].legalAdds[0]
+	  || state.legalAdds[1] != positions[k].legalAdds[1]
+	  || !sameGraph(state, positions[k])) {
+	mismatches++;
+	System.out.println("MISMATCH in incremental state of position " + k + " after undo()");
+      }
+    }
+    System.out.println("legal ADD masks and network graph: " + checks + " checks, "
+		       + mismatches + " mismatches");
+  }
+
+  //returns true if the chips of 'a' have the same network graph in 'b'
+  private static boolean sameGraph(GameState a, GameState b) {
+    for (long chips = a.gameBoard.occupied(); chips != 0; chips &= chips - 1) {
+      int sq = Long.numberOfTrailingZeros(chips);
+      if (a.linkDirs[sq] != b.linkDirs[sq]) {
+	return false;
+      }
+      for (int dirs = a.linkDirs[sq]; dirs != 0; dirs &= dirs - 1) {
+	int dir = Integer.numberOfTrailingZeros(dirs);
+	if (a.links[8 * sq + dir] != b.links[8 * sq + dir]) {
+	  return false;
+	}
+      }
+    }
+    return true;
+  }
+
+  /**
+   * generators() measures how many moves per second generateMoves() and
+   * validMoves() produce, separately on add-phase and step-phase positions.
+   * @param positions are the positions to generate moves for
+   **/
+  static void generators(GameState[] positions) {
+    int[] buffer = new int[GameState.MAXMOVES];
+    for (int phase = 0; phase < 2; phase++) {
+      String name = phase == 0 ? "add" : "step";
+      double fast = 0;
+      double slow = 0;
+      for (int pass = 0; pass < 5; pass++) { // the first passes warm up the compiler
+	long moves = 0;
+	long t0 = System.nanoTime();
+	for (int repeat = 0; repeat < 200; repeat++) {
+	  for (int k = phase; k < positions.length; k += 2) {
+	    moves += positions[k].generateMoves(positions[k].sideToMove, buffer);
+	  }
+	}
+	long t1 = System.nanoTime();
+	fast = moves * 1e9 / (t1 - t0);
+	moves = 0;
+	for (int repeat = 0; repeat < 20; repeat++) {
+	  for (int k = phase; k < positions.length; k += 2) {
+	    moves += positions[k].validMoves(positions[k].sideToMove).length();
+	  }
+	}
+	slow = moves * 1e9 / (System.nanoTime() - t1);
+      }
+      System.out.println("generators, " + name + " phase: " + Math.round(fast)
+			 + " moves/s by generateMoves(), " + Math.round(slow)
+			 + " moves/s by validMoves()");
+    }
+  }
+
+  /**
+   * threats() checks winningMove() against trying every move of a side, on
+   * every position one move away from the Positions set, for both sides.
+   * It reports how many of them have a winning move and the time per call.
+   * @param positions are the positions to start from
+   **/
+  static void threats(GameState[] positions) {
+    int[] moves = new int[GameState.MAXMOVES];
+    int[] buffer = new int[GameState.MAXMOVES];
+    int checked = 0;
+    int found = 0;
+    int mismatches = 0;
+    long time = 0;
+    for (int k = 0; k < positions.length; k++) {
+      GameState state = new GameState(positions[k]);
+      int mover = state.sideToMove;
+      int n = state.generateMoves(mover, moves);
+      for (int i = 0; i < n; i++) {
+	state.applyUnchecked(moves[i], mover);
+	if (!state.hasValidNetwork(GameState.BLACK) && !state.hasValidNetwork(GameState.WHITE)) {
+	  for (int side = GameState.BLACK; side <= GameState.WHITE; side += 2) {
+	    long t0 = System.nanoTime();
+	    boolean fast = state.winningMove(side, buffer) != PackedMove.NONE;
+	    time += System.nanoTime() - t0;
+	    boolean slow = false;
+	    int count = state.generateMoves(side, buffer);
+	    for (int j = 0; j < count && !slow; j++) {
+	      state.applyUnchecked(buffer[j], side);
+	      slow = state.hasValidNetwork(side) && !state.hasValidNetwork(GameState.opponent(side));
+	      state.undo();
+	    }
+	    checked++;
+	    if (slow) {
+	      found++;
+	    }
+	    if (fast != slow) {
+	      mismatches++;
+	      System.out.println("MISMATCH in winning move of " + side + " on board\n" + state);
+	    }
+	  }
+	}
+	state.undo();
+      }
+    }
+    System.out.println("threats: " + checked + " positions, " + found + " with a winning move, "
+		       + mismatches + " mismatches; " + (checked == 0 ? 0 : time / checked)
+		       + " ns per winningMove()");
+  }
+
+  /**
+   * moveKinds() checks that a MachinePlayer refuses an ADD move from a side
+   * that has all ten chips on the board, and a STEP move from a side that
+   * has fewer, and leaves its game as it was.  The move is given to
+   * opponentMove() of a player of the other color, and breaks no rule but
+   * that one: it goes to an empty square the side may use without forming
+   * a cluster, and a STEP leaves one of the side's own chips.
+   * @param positions are the positions to check
+   **/
+  static void moveKinds(GameState[] positions) {
+    int adds = 0;
+    int steps = 0;
+    int mismatches = 0;
+    for (int k = 0; k < positions.length; k++) {
+      GameState state = positions[k];
+      int side = state.sideToMove;
+      long own = state.gameBoard.chips(side);
+      long open = state.gameBoard.empty() & ~Board.forbidden(side);
+      Move wrong = null;
+      if ((side == GameState.BLACK ? state.blackCount : state.whiteCount) == 10) {
+	long targets = open & ~Board.clustered(own);
+	if (targets != 0) {
+	  int target = Long.numberOfTrailingZeros(targets);
+	  wrong = new Move(Board.squareX(target), Board.squareY(target));
+	  adds++;
+	}
+      } else {
+	for (long sources = own; sources != 0 && wrong == null; sources &= sources - 1) {
+	  int source = Long.numberOfTrailingZeros(sources);
+	  long rest = own & ~(1L << source);
+	  for (long targets = open; targets != 0; targets &= targets - 1) {
+	    long target = targets & -targets;
+	    if (!GameState.formsCluster(target, rest)) {
+	      int sq = Long.numberOfTrailingZeros(target);
+	      wrong = new Move(Board.squareX(sq), Board.squareY(sq),
+			       Board.squareX(source), Board.squareY(source));
+	      steps++;
+	      break;
+	    }
+	  }
+	}
+      }
+      if (wrong == null) {
+	continue;
+      }
+      // the constructor takes 0 for BLACK and 1 for WHITE
+      MachinePlayer player = new MachinePlayer(side == GameState.WHITE ? 0 : 1);
+      player.currentState = new GameState(state);
+      boolean accepted;
+      try {
+	accepted = player.opponentMove(wrong);
+      } catch (RuntimeException e) {
+	accepted = true;
+      }
+      if (accepted || player.currentState.hashKey() != state.hashKey()) {
+	mismatches++;
+	System.out.println("MISMATCH: " + wrong + " by " + side + " accepted on board\n" + state);
+      }
+    }
+    System.out.println("move kinds: " + adds + " ADD moves in the step phase, " + steps
+		       + " STEP moves in the add phase, " + mismatches + " mismatches");
+  }
+}
@@ -0,0 +1,153 @@
+/* TranspositionTable.java */
+
+package player;
+
+/**
+ *  A fixed-size hash table of search results keyed by GameState.hashKey().
+ *  Each entry holds the remaining search depth, the bound type of the score
+ *  (EXACT, LOWER or UPPER), the score itself and the best move found, packed
+ *  with PackedMove.
+ *
+ *  The table may be shared by several search threads without locks.  An
+ *  entry is two longs: a data word packing all of the fields above, and the
+ *  key XORed with the data word.  A reader accepts an entry only if the two
+ *  words XOR back to its key, so an entry torn by two threads writing at once
+ *  reads as a miss instead of as a wrong result.
+ *
+ *  Entries live in buckets of two.  The first slot of a bucket keeps the
+ *  deepest result of the current search; the second slot always takes the
+ *  newest result that did not make it into the first.  Entries left over from
+ *  an earlier search are replaced first.
+ */
+public class TranspositionTable {
+
+  static final int EXACT = 0;  // score is the true value of the position
+  static final int LOWER = 1;  // score is a lower bound (the search failed high)
+  static final int UPPER = 2;  // score is an upper bound (the search failed low)
+
+  static final long MISS = 0;  // returned by probe() when the position is not stored
+
+  static final int ENTRYBYTES = 16;      // bytes used by one entry: two longs
+  static final double SCORESCALE = 1000; // scores are stored as fixed point
+
+  // layout of a data word, from the low bits to the high bits:
+  // score (32 bits) | move (14) | depth (8) | bound (2) | age (7) | valid (1)
+  private static final int MOVESHIFT = 32;
+  private static final int DEPTHSHIFT = 46;
+  private static final int BOUNDSHIFT = 54;
+  private static final int AGESHIFT = 56;
+  private static final long VALID = 1L << 63;
+
+  private long[] slots;  // key ^ data at 2 * i, data at 2 * i + 1
+  private int mask;
+  private int generation;
+
+  /**
+   * Constructs a table that uses at most 'megabytes' megabytes.  The number
+   * of entries is rounded down to a power of two, and is at least two.
+   **/
+  public TranspositionTable(int megabytes) {
+    long budget = (long) megabytes << 20;
+    int size = 2;
+    while ((long) size * 2 * ENTRYBYTES <= budget && size < (1 << 29)) {
+      size *= 2;
+    }
+    slots = new long[2 * size];
+    mask = size - 1;
+  }
+
+  //returns the number of entries in the table
+  public int size() {
+    return slots.length / 2;
+  }
+
+  //empties the table
+  public void clear() {
+    for (int i = 0; i < slots.length; i++) {
+      slots[i] = 0;
+    }
+  }
+
+  /**
+   * newSearch() marks every entry stored so far as belonging to an earlier
+   * search, so that they are the first to be replaced.
+   **/
+  public void newSearch() {
+    generation = (generation + 1) & 0x7F;
+  }
+
+  /**
+   * probe() looks up a position.
+   * @param key is the hash key of the position
+   * @return the data word of the matching entry, or MISS if the position is
+   * not stored.  Its fields are read with depth(), bound(), score() and move().
+   **/
+  public long probe(long key) {
+    int i = (int) key & mask & ~1;
+    for (int e = i; e <= i + 1; e++) {
+      long data = slots[2 * e + 1];
+      if (data != MISS && (slots[2 * e] ^ data) == key) {
+	return data;
+      }
+    }
+    return MISS;
+  }
+
+  //returns the remaining search depth stored in a data word
+  static int depth(long data) {
+    return (int) (data >>> DEPTHSHIFT) & 0xFF;
+  }
+
+  //returns the bound type (EXACT, LOWER or UPPER) stored in a data word
+  static int bound(long data) {
+    return (int) (data >>> BOUNDSHIFT) & 3;
+  }
+
+  //returns the score stored in a data word
+  static double score(long data) {
+    return ((int) data) / SCORESCALE;
+  }
+
+  //returns the packed best move stored in a data word, or PackedMove.NONE
+  static int move(long data) {
+    return (int) (data >>> MOVESHIFT) & 0x3FFF;
+  }
+
+  //returns the search generation stored in a data word
+  private static int age(long data) {
+    return (int) (data >>> AGESHIFT) & 0x7F;
+  }
+
+  /**
+   * store() records a search result, applying the replacement policy.
+   * @param key is the hash key of the position
+   * @param depth is the remaining search depth below the position
+   * @param bound is EXACT, LOWER or UPPER
+   * @param score is the score found
+   * @param move is the packed best move, or PackedMove.NONE
+   **/
+  public void store(long key, int depth, int bound, double score, int move) {
+    int e = (int) key & mask & ~1;
+    long first = slots[2 * e + 1];
+    long second = slots[2 * e + 3];
+    boolean firstMatches = first != MISS && (slots[2 * e] ^ first) == key;
+    boolean secondMatches = second != MISS && (slots[2 * e + 2] ^ second) == key;
+    if (!firstMatches
+	&& (secondMatches || (first != MISS && age(first) == generation
+			      && depth(first) > depth))) {
+      e++;  // keep the deeper entry of this search in the first slot
+    }
+    long old = slots[2 * e + 1];
+    if (move == PackedMove.NONE && old != MISS && (slots[2 * e] ^ old) == key) {
+      move = move(old);  // keep the old best move rather than forgetting it
+    }
+    long data = VALID
+      | ((long) generation << AGESHIFT)
+      | ((long) bound << BOUNDSHIFT)
+      | ((long) Math.min(depth, 0xFF) << DEPTHSHIFT)
+      | ((long) move << MOVESHIFT)
+      | (Math.round(score * SCORESCALE) & 0xFFFFFFFFL);
+    slots[2 * e] = key ^ data;
+    slots[2 * e + 1] = data;
+  }
+}